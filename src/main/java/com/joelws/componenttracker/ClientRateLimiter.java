@@ -0,0 +1,116 @@
+package com.joelws.componenttracker;
+/*
+Copyright 2016 Joel Whittaker-Smith
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket per client. Each client may make a burst of requests, after which it is limited
+ * to a steady rate. Only the most recently seen clients are tracked, so the memory used stays
+ * bounded however many clients there are.
+ */
+final class ClientRateLimiter {
+
+  private static final int MAX_CLIENTS = Integer
+      .getInteger(ClientRateLimiter.class.getName() + ".maxClients", 1024);
+
+  // Access ordered, so the least recently seen client is dropped first. Guarded by itself.
+  private final Map<String, Bucket> buckets;
+
+  private final double tokensPerNano;
+
+  private final double burst;
+
+  /**
+   * @param perSecond steady rate of requests per client, 0 or less for no limit
+   * @param burst requests a client may make at once
+   */
+  ClientRateLimiter(double perSecond, int burst) {
+    this(perSecond, burst, MAX_CLIENTS);
+  }
+
+  ClientRateLimiter(double perSecond, int burst, final int maxClients) {
+    this.tokensPerNano = perSecond / TimeUnit.SECONDS.toNanos(1);
+    this.burst = Math.max(1, burst);
+    this.buckets = new LinkedHashMap<String, Bucket>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Bucket> eldest) {
+        return size() > Math.max(1, maxClients);
+      }
+    };
+  }
+
+  boolean isEnabled() {
+    return tokensPerNano > 0;
+  }
+
+  /**
+   * Takes a token for the client.
+   *
+   * @return 0 if the request may go ahead, otherwise the nanoseconds until it may be retried
+   */
+  long acquire(String client, long now) {
+    if (!isEnabled()) {
+      return 0;
+    }
+
+    Bucket bucket;
+    synchronized (buckets) {
+      bucket = buckets.get(client);
+      if (bucket == null) {
+        bucket = new Bucket(burst, now);
+        buckets.put(client, bucket);
+      }
+    }
+    return bucket.acquire(now);
+  }
+
+  int size() {
+    synchronized (buckets) {
+      return buckets.size();
+    }
+  }
+
+  private final class Bucket {
+
+    private double tokens;
+
+    private long refilled;
+
+    Bucket(double tokens, long now) {
+      this.tokens = tokens;
+      this.refilled = now;
+    }
+
+    synchronized long acquire(long now) {
+      refill(now);
+      if (tokens >= 1) {
+        tokens--;
+        return 0;
+      }
+      return (long) Math.ceil((1 - tokens) / tokensPerNano);
+    }
+
+    private void refill(long now) {
+      if (now > refilled) {
+        tokens = Math.min(burst, tokens + (now - refilled) * tokensPerNano);
+        refilled = now;
+      }
+    }
+  }
+}
@@ -0,0 +1,144 @@
+package com.joelws.componenttracker;
+/*
+Copyright 2016 Joel Whittaker-Smith
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import com.joelws.componenttracker.model.Component;
+import hudson.util.ListBoxModel;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import javax.servlet.ServletException;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * The configured component names, prepared once per configuration change: the dropdown model
+ * with its ETag, and a sorted index for prefix searches.
+ */
+final class ComponentCatalogue {
+
+  static final ComponentCatalogue EMPTY = of(null);
+
+  private final ListBoxModel items;
+
+  // Lower cased names in sorted order, with the configured spelling at the same position.
+  private final String[] keys;
+
+  private final String[] names;
+
+  private ComponentCatalogue(ListBoxModel items, String[] keys, String[] names) {
+    this.items = items;
+    this.keys = keys;
+    this.names = names;
+  }
+
+  static ComponentCatalogue of(List<Component> componentList) {
+    final List<String> configured = new ArrayList<>();
+    if (componentList != null) {
+      for (Component component : componentList) {
+        if (component != null && component.getName() != null) {
+          configured.add(component.getName());
+        }
+      }
+    }
+
+    final StringBuilder content = new StringBuilder();
+    for (String name : configured) {
+      content.append(name).append('\n');
+    }
+    final String etag = '"' + ManifestRepresentation
+        .sha1(content.toString().getBytes(StandardCharsets.UTF_8)) + '"';
+
+    final CachedListBoxModel items = new CachedListBoxModel(configured.size(), etag);
+    for (String name : configured) {
+      items.add(name);
+    }
+
+    final String[] sorted = configured.toArray(new String[configured.size()]);
+    Arrays.sort(sorted, String.CASE_INSENSITIVE_ORDER);
+    final String[] keys = new String[sorted.length];
+    for (int i = 0; i < sorted.length; i++) {
+      keys[i] = sorted[i].toLowerCase(Locale.ENGLISH);
+    }
+
+    return new ComponentCatalogue(items, keys, sorted);
+  }
+
+  /**
+   * Shared between requests, so it must not be modified.
+   */
+  ListBoxModel getItems() {
+    return items;
+  }
+
+  /**
+   * Up to limit names starting with the prefix, ignoring case, in alphabetical order.
+   */
+  List<String> search(String prefix, int limit) {
+    final String key = prefix != null ? prefix.trim().toLowerCase(Locale.ENGLISH) : "";
+
+    int index = Arrays.binarySearch(keys, key);
+    if (index < 0) {
+      index = -index - 1;
+    }
+    // Equal keys may sit on either side of the one found.
+    while (index > 0 && keys[index - 1].startsWith(key)) {
+      index--;
+    }
+
+    final List<String> result = new ArrayList<>();
+    for (; index < keys.length && result.size() < limit && keys[index].startsWith(key); index++) {
+      result.add(names[index]);
+    }
+    return Collections.unmodifiableList(result);
+  }
+
+  /**
+   * Lets the browser revalidate the dropdown with a conditional request instead of downloading
+   * the whole list again.
+   */
+  static final class CachedListBoxModel extends ListBoxModel {
+
+    private final String etag;
+
+    CachedListBoxModel(int size, String etag) {
+      super(size);
+      this.etag = etag;
+    }
+
+    String getETag() {
+      return etag;
+    }
+
+    @Override
+    public void generateResponse(StaplerRequest req, StaplerResponse rsp, Object node)
+        throws IOException, ServletException {
+      rsp.setHeader("ETag", etag);
+      rsp.setHeader("Cache-Control", "private, no-cache");
+
+      final String ifNoneMatch = req.getHeader("If-None-Match");
+      if (ifNoneMatch != null && ifNoneMatch.contains(etag)) {
+        rsp.setStatus(304);
+        return;
+      }
+      super.generateResponse(req, rsp, node);
+    }
+  }
+}
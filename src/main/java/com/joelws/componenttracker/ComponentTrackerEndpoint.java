@@ -15,9 +15,10 @@ See the License for the specific language governing permissions and
 limitations under the License.
 */
 
-import com.google.gson.Gson;
-import com.joelws.componenttracker.model.Component;
+import com.google.gson.stream.JsonWriter;
 import com.joelws.componenttracker.model.ComponentManifest;
+import com.joelws.componenttracker.model.ManifestDelta;
+import com.joelws.componenttracker.model.SemanticVersion.Bump;
 import hudson.BulkChange;
 import hudson.Extension;
 import hudson.XmlFile;
@@ -26,14 +27,24 @@ import hudson.model.RootAction;
 import hudson.model.Saveable;
 import hudson.model.listeners.SaveableListener;
 import hudson.security.AccessControlled;
-import hudson.util.IOUtils;
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.util.regex.Matcher;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 import jenkins.model.Jenkins;
-import net.sf.json.JSONObject;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 import org.slf4j.Logger;
@@ -46,12 +57,68 @@ public class ComponentTrackerEndpoint implements RootAction, Saveable {
 
   private static final String ENDPOINT_URL = "component-tracker";
 
-  private static final Pattern VERSION_PATTERN = Pattern.compile("(\\d+)\\.(\\d+)\\.(\\d+)");
+  private static final long MAX_REQUEST_SIZE = Long
+      .getLong(ComponentTrackerEndpoint.class.getName() + ".maxRequestSize", 10L * 1024 * 1024);
 
+  private static final int MAX_COMPONENTS = Integer
+      .getInteger(ComponentTrackerEndpoint.class.getName() + ".maxComponents", 10000);
+
+  private static final Pattern NAME_PATTERN = Pattern.compile("[A-Za-z0-9._-]+");
+
+  private static final String MANIFEST_SUFFIX = ".xml";
+
+  private static final String METRICS = "metrics";
+
+  private static final String CHANGES = "changes";
+
+  private static final String QUERY = "query";
+
+  private static final String DIFF = "diff";
+
+  private static final long MAX_POLL_SECONDS = Long
+      .getLong(ComponentTrackerEndpoint.class.getName() + ".maxPollSeconds", 30L);
+
+  private static final int POSTS_PER_SECOND = Integer
+      .getInteger(ComponentTrackerEndpoint.class.getName() + ".postsPerSecond", 10);
+
+  private static final int POST_BURST = Integer
+      .getInteger(ComponentTrackerEndpoint.class.getName() + ".postBurst", 20);
+
+  private final transient ConcurrentMap<String, TrackedManifest> manifests =
+      new ConcurrentHashMap<>();
+
+  private final transient ClientRateLimiter postLimiter =
+      new ClientRateLimiter(POSTS_PER_SECOND, POST_BURST);
+
+  // Only read to migrate state saved before manifests had their own files.
   private ComponentManifest latestManifest;
 
+  private volatile String defaultManifest;
+
   public ComponentTrackerEndpoint() {
     load();
+
+    final File[] files = new File(getRootDirectory(), "manifests").listFiles();
+    if (files != null) {
+      for (File file : files) {
+        final String fileName = file.getName();
+        if (fileName.endsWith(MANIFEST_SUFFIX)) {
+          getOrCreateTrackedManifest(
+              fileName.substring(0, fileName.length() - MANIFEST_SUFFIX.length()));
+        }
+      }
+    }
+
+    if (latestManifest != null) {
+      LOGGER.info("Migrating manifest " + latestManifest.getName() + " to its own file");
+      final TrackedManifest trackedManifest = getOrCreateTrackedManifest(latestManifest.getName());
+      if (trackedManifest.getLatestManifest() == null) {
+        trackedManifest.setLatestManifest(latestManifest);
+      }
+      defaultManifest = latestManifest.getName();
+      latestManifest = null;
+      save();
+    }
   }
 
   public static ComponentTrackerEndpoint getInstance() {
@@ -76,41 +143,62 @@ public class ComponentTrackerEndpoint implements RootAction, Saveable {
     return ENDPOINT_URL;
   }
 
-  public synchronized ComponentManifest getLatestManifest() {
-    return latestManifest;
+  public Collection<TrackedManifest> getTrackedManifests() {
+    return Collections.unmodifiableCollection(manifests.values());
   }
 
-  public synchronized void setLatestManifest(ComponentManifest latestManifest) {
-    this.latestManifest = latestManifest;
-    save();
+  public TrackedManifest getTrackedManifest(String name) {
+    return name != null ? manifests.get(name) : null;
   }
 
-  public synchronized void updateComponentInManifest(String name, String version)
-      throws NumberFormatException {
-    ComponentManifest latestManifest = getLatestManifest();
-    Component componentToBeUpdated = null;
+  public TrackedManifest getOrCreateTrackedManifest(String name) {
+    TrackedManifest trackedManifest = manifests.get(name);
 
-    for (Component component : latestManifest.getArtifacts()) {
-      if (name.equals(component.getName())) {
-        componentToBeUpdated = component;
+    if (trackedManifest == null) {
+      final TrackedManifest created = new TrackedManifest(getRootDirectory(), name);
+      trackedManifest = manifests.putIfAbsent(name, created);
+      if (trackedManifest == null) {
+        trackedManifest = created;
       }
     }
+    return trackedManifest;
+  }
 
-    if (componentToBeUpdated != null) {
-      final Matcher versionMatcher = VERSION_PATTERN.matcher(latestManifest.getVersion());
-
-      if (versionMatcher.matches()) {
-        final long incrementalNumber = Long.parseLong(versionMatcher.group(3));
-        latestManifest.setVersion(String.format(
-            "%s.%s.%s",
-            versionMatcher.group(1),
-            versionMatcher.group(2),
-            incrementalNumber + 1));
-        componentToBeUpdated.setVersion(version);
-      }
+  /**
+   * The manifest served at the endpoint root and used by publishers that do not name one.
+   */
+  public TrackedManifest getDefaultManifest() {
+    return getTrackedManifest(defaultManifest);
+  }
 
+  public void setDefaultManifest(String name) {
+    if (!name.equals(defaultManifest)) {
+      defaultManifest = name;
+      save();
     }
-    setLatestManifest(latestManifest);
+  }
+
+  public ComponentManifest getLatestManifest() {
+    final TrackedManifest trackedManifest = getDefaultManifest();
+    return trackedManifest != null ? trackedManifest.getLatestManifest() : null;
+  }
+
+  /**
+   * Stores the manifest under its own name and makes it the default manifest.
+   */
+  public void setLatestManifest(ComponentManifest latestManifest) {
+    getOrCreateTrackedManifest(latestManifest.getName()).setLatestManifest(latestManifest);
+    setDefaultManifest(latestManifest.getName());
+  }
+
+  public void updateComponentInManifest(String name, String version)
+      throws NumberFormatException {
+    updateComponentsInManifest(Collections.singletonMap(name, version));
+  }
+
+  public ComponentManifest updateComponentsInManifest(Map<String, String> versions) {
+    final TrackedManifest trackedManifest = getDefaultManifest();
+    return trackedManifest != null ? trackedManifest.updateComponentsInManifest(versions) : null;
   }
 
   @Override
@@ -126,7 +214,7 @@ public class ComponentTrackerEndpoint implements RootAction, Saveable {
     }
   }
 
-  private synchronized void load() {
+  private void load() {
     XmlFile file = getConfigFile();
 
     if (file.exists()) {
@@ -145,6 +233,8 @@ public class ComponentTrackerEndpoint implements RootAction, Saveable {
 
     if (hasPermission) {
 
+      final long started = System.nanoTime();
+
       try {
 
         handleHttpMethod(req, res);
@@ -153,6 +243,11 @@ public class ComponentTrackerEndpoint implements RootAction, Saveable {
 
         res.sendError(400);
 
+      } finally {
+        // Polls of the change feed are held open on purpose, keep them out of request latency.
+        ComponentTrackerMetrics.getInstance().record(CHANGES.equals(getManifestName(req))
+            ? "http.changes.nanos"
+            : "http." + req.getMethod() + ".nanos", System.nanoTime() - started);
       }
     } else {
       res.sendError(403);
@@ -161,66 +256,474 @@ public class ComponentTrackerEndpoint implements RootAction, Saveable {
 
   }
 
+  static boolean isValidName(String name) {
+    return name != null && NAME_PATTERN.matcher(name).matches()
+        && !METRICS.equals(name) && !CHANGES.equals(name) && !QUERY.equals(name)
+        && !DIFF.equals(name);
+  }
+
+  private File getRootDirectory() {
+    return new File(Jenkins.getInstance().getRootDir(), ENDPOINT_URL);
+  }
+
   private XmlFile getConfigFile() {
     return new XmlFile(new File(Jenkins.getInstance().getRootDir(), getClass().getName() + ".xml"));
   }
 
   private void handleHttpMethod(StaplerRequest req, StaplerResponse res) throws IOException {
     final String method = req.getMethod();
-    if ("GET".equals(method)) {
-      handleGet(req, res);
-    } else if ("POST".equals(method)) {
-      handlePost(req, res);
+    final String manifestName = getManifestName(req);
+
+    if (METRICS.equals(manifestName)) {
+      if ("GET".equals(method)) {
+        handleMetrics(res);
+      } else {
+        res.sendError(405);
+      }
+      return;
+    }
+
+    if (CHANGES.equals(manifestName)) {
+      if ("GET".equals(method)) {
+        handleChanges(req, res);
+      } else {
+        res.sendError(405);
+      }
+      return;
+    }
+
+    if (QUERY.equals(manifestName)) {
+      if ("GET".equals(method)) {
+        handleQuery(req, res);
+      } else {
+        res.sendError(405);
+      }
+      return;
+    }
+
+    if (DIFF.equals(manifestName)) {
+      if ("GET".equals(method)) {
+        handleDiff(req, res);
+      } else {
+        res.sendError(405);
+      }
+      return;
+    }
+
+    if (manifestName != null && !isValidName(manifestName)) {
+      res.sendError(404);
+      return;
+    }
+
+    if ("POST".equals(method)) {
+      handlePost(manifestName, req, res);
+      return;
+    }
+
+    final TrackedManifest trackedManifest = manifestName != null
+        ? getTrackedManifest(manifestName)
+        : getDefaultManifest();
+
+    if (trackedManifest == null) {
+      res.sendError(404, "Unknown manifest");
+    } else if ("GET".equals(method)) {
+      handleGet(trackedManifest, req, res);
+    } else if ("PATCH".equals(method)) {
+      handlePatch(trackedManifest, req, res);
+    }
+  }
+
+  // The manifest addressed by /component-tracker/<manifest>, or null for the endpoint root.
+  private static String getManifestName(StaplerRequest req) {
+    String path = req.getRestOfPath();
+
+    if (path == null) {
+      return null;
+    }
+    while (path.startsWith("/")) {
+      path = path.substring(1);
+    }
+    while (path.endsWith("/")) {
+      path = path.substring(0, path.length() - 1);
+    }
+    return path.isEmpty() ? null : path;
+  }
+
+  private void handleMetrics(StaplerResponse res) throws IOException {
+    final Map<String, Number> gauges = new LinkedHashMap<>();
+    int pendingSaves = 0;
+    for (TrackedManifest trackedManifest : getTrackedManifests()) {
+      pendingSaves += trackedManifest.getPersister().getPendingUpdates();
+    }
+    gauges.put("deployment.queue.depth", DeploymentQueue.getInstance().getDepth());
+    gauges.put("save.pending", pendingSaves);
+    gauges.put("manifests", manifests.size());
+    gauges.put("changes.waiting", ManifestChangeFeed.getInstance().getWaiting());
+
+    res.setContentType("application/json;charset=UTF-8");
+    try (Writer writer = res.getWriter()) {
+      ComponentTrackerMetrics.getInstance().write(writer, gauges);
+    }
+  }
+
+  /**
+   * Manifest changes after the token in the query or in Last-Event-ID, as Server-Sent Events
+   * when the client accepts them and as JSON otherwise. Without a token only changes published
+   * from now on are returned. The response is held until there is a change or the timeout, in
+   * seconds, expires, and ends with the token to resume from.
+   */
+  private void handleChanges(StaplerRequest req, StaplerResponse res) throws IOException {
+    String token = req.getParameter("token");
+    if (token == null) {
+      token = req.getHeader("Last-Event-ID");
+    }
+
+    final String accept = req.getHeader("Accept");
+    final boolean eventStream = accept != null && accept.contains("text/event-stream");
+
+    long timeoutSeconds = MAX_POLL_SECONDS;
+    final String timeout = req.getParameter("timeout");
+    if (timeout != null) {
+      try {
+        timeoutSeconds = Math.max(0, Math.min(Long.parseLong(timeout), MAX_POLL_SECONDS));
+      } catch (NumberFormatException e) {
+        res.sendError(400, "timeout must be a number of seconds");
+        return;
+      }
+    }
+
+    ManifestChangeFeed.getInstance().subscribe(req, res, token, req.getParameter("manifest"),
+        eventStream, TimeUnit.SECONDS.toMillis(timeoutSeconds));
+  }
+
+  /**
+   * Versions of each manifest, or of the one named in the query, that held the component at the
+   * given version.
+   */
+  private void handleQuery(StaplerRequest req, StaplerResponse res) throws IOException {
+    final String component = req.getParameter("component");
+    final String version = req.getParameter("version");
+
+    if (component == null || version == null) {
+      res.sendError(400, "component and version are required");
+      return;
+    }
+
+    final Map<String, TrackedManifest> searched = new TreeMap<>();
+    final String manifestName = req.getParameter("manifest");
+
+    if (manifestName != null) {
+      final TrackedManifest trackedManifest = getTrackedManifest(manifestName);
+      if (trackedManifest == null) {
+        res.sendError(404, "Unknown manifest");
+        return;
+      }
+      searched.put(manifestName, trackedManifest);
+    } else {
+      searched.putAll(manifests);
+    }
+
+    res.setContentType("application/json;charset=UTF-8");
+    try (Writer writer = res.getWriter()) {
+      final JsonWriter json = new JsonWriter(writer);
+      json.beginObject();
+      json.name("component").value(component);
+      json.name("version").value(version);
+
+      json.name("manifests").beginObject();
+      for (Map.Entry<String, TrackedManifest> trackedManifest : searched.entrySet()) {
+        final List<String> versions = trackedManifest.getValue().findVersions(component, version);
+        if (versions.isEmpty()) {
+          continue;
+        }
+        json.name(trackedManifest.getKey()).beginArray();
+        for (String manifestVersion : versions) {
+          json.value(manifestVersion);
+        }
+        json.endArray();
+      }
+      json.endObject();
+
+      json.endObject();
+      json.flush();
     }
   }
 
-  private void handleGet(StaplerRequest req, StaplerResponse res) throws IOException {
+  /**
+   * Components changed between two versions of the manifest named in the query, or of the
+   * default manifest. Without a to version the diff is up to the latest manifest.
+   */
+  private void handleDiff(StaplerRequest req, StaplerResponse res) throws IOException {
+    final String manifestName = req.getParameter("manifest");
+    final String from = req.getParameter("from");
+    final String to = req.getParameter("to");
+
+    if (from == null) {
+      res.sendError(400, "from is required");
+      return;
+    }
+
+    final TrackedManifest trackedManifest = manifestName != null
+        ? getTrackedManifest(manifestName)
+        : getDefaultManifest();
+
+    if (trackedManifest == null) {
+      res.sendError(404, "Unknown manifest");
+      return;
+    }
+
+    final ComponentManifest fromManifest = trackedManifest.getManifest(from);
+    final ComponentManifest toManifest = to != null
+        ? trackedManifest.getManifest(to)
+        : trackedManifest.getLatestManifest();
+
+    if (fromManifest == null || toManifest == null) {
+      res.sendError(404, "Unknown manifest version");
+      return;
+    }
+    writeRepresentation(ManifestRepresentation.of(ManifestDelta.between(fromManifest, toManifest)),
+        req, res);
+  }
+
+  private void handleGet(TrackedManifest trackedManifest, StaplerRequest req,
+      StaplerResponse res) throws IOException {
 
     if (req.getMethod().equals("GET")) {
 
-      Gson gson = new Gson();
-      final String latestManifest = gson.toJson(getLatestManifest());
+      final String version = req.getParameter("version");
+      final String since = req.getParameter("since");
+      final ManifestRepresentation representation;
+
+      if (since != null) {
+        LOGGER.debug("Getting manifest changes since " + since);
+        final ComponentManifest latestManifest = trackedManifest.getLatestManifest();
+        final ComponentManifest sinceManifest = trackedManifest.getManifest(since);
+
+        if (latestManifest == null || sinceManifest == null) {
+          res.sendError(404, "Unknown manifest version");
+          return;
+        }
+        representation = ManifestRepresentation
+            .of(ManifestDelta.between(sinceManifest, latestManifest));
+      } else if (version != null) {
+        LOGGER.info("Getting manifest version " + version);
+        final ComponentManifest componentManifest = trackedManifest.getManifest(version);
+
+        if (componentManifest == null) {
+          res.sendError(404, "Unknown manifest version");
+          return;
+        }
+        representation = ManifestRepresentation.of(componentManifest);
+      } else {
+        LOGGER.debug("Getting latest manifest version");
+        representation = trackedManifest.getRepresentation();
+      }
+
+      writeRepresentation(representation, req, res);
+    }
+  }
+
+  private static void writeRepresentation(ManifestRepresentation representation,
+      StaplerRequest req, StaplerResponse res) throws IOException {
+    final boolean gzip = ManifestRepresentation.acceptsGzip(req.getHeader("Accept-Encoding"));
 
-      LOGGER.info("Getting latest manifest version");
+    res.setHeader("ETag", representation.getETag(gzip));
+    res.setHeader("Vary", "Accept-Encoding");
 
-      res
-          .addHeader("Content-Type", "application/json");
-      res
-          .getWriter()
-          .print(latestManifest);
+    if (representation.matches(req.getHeader("If-None-Match"))) {
+      res.setStatus(304);
+      return;
     }
+
+    final byte[] body;
+    if (gzip) {
+      res.setHeader("Content-Encoding", "gzip");
+      body = representation.getGzip();
+    } else {
+      body = representation.getJson();
+    }
+
+    res.setContentType("application/json;charset=UTF-8");
+    res.setContentLength(body.length);
+    res.getOutputStream().write(body);
   }
 
-  private void handlePost(StaplerRequest req, StaplerResponse res) throws IOException {
-    if (req.getMethod().equals("POST")
-        && "application/json"
-        .equals(req.getHeader("Content-Type"))) {
+  private void handlePost(String manifestName, StaplerRequest req, StaplerResponse res) throws IOException {
+    if (req.getMethod().equals("POST")) {
+
+      // Checked before the body is read, so a client over its limit costs next to nothing.
+      final long retryNanos = postLimiter.acquire(req.getRemoteAddr(), System.nanoTime());
+      if (retryNanos > 0) {
+        ComponentTrackerMetrics.getInstance().increment("http.POST.throttled");
+        final long second = TimeUnit.SECONDS.toNanos(1);
+        res.setHeader("Retry-After",
+            Long.toString(Math.max(1, (retryNanos + second - 1) / second)));
+        res.sendError(429, "Too many manifest updates, retry later");
+        return;
+      }
+
+      final String contentType = req.getContentType();
+      if (contentType == null || !contentType.startsWith("application/json")) {
+        res.sendError(415, "Content-Type must be application/json");
+        return;
+      }
+
+      if (req.getContentLength() > MAX_REQUEST_SIZE) {
+        res.sendError(413, "Request body is larger than " + MAX_REQUEST_SIZE + " bytes");
+        return;
+      }
 
       LOGGER.info("Setting latest manifest");
-      final JSONObject jsonObject = JSONObject.fromObject(getRequestBody(req));
+      final ComponentManifest componentManifest;
+
+      try (Reader reader = req.getReader()) {
+        componentManifest = ManifestJson.read(reader, MAX_REQUEST_SIZE, MAX_COMPONENTS);
+      } catch (ManifestRequestException e) {
+        LOGGER.info("Rejected manifest: " + e.getMessage());
+        res.sendError(e.getStatus(), e.getMessage());
+        return;
+      }
 
-      if (jsonObject != null) {
+      if (manifestName != null && !manifestName.equals(componentManifest.getName())) {
+        res.sendError(400, "Manifest name does not match " + manifestName);
+        return;
+      }
 
-        setLatestManifest(req.bindJSON(ComponentManifest.class, jsonObject));
-        res.setStatus(200);
+      if (!isValidName(componentManifest.getName())) {
+        res.sendError(400, "Manifest name may only contain letters, digits, '.', '_' and '-'"
+            + " and may not be '" + METRICS + "', '" + CHANGES + "', '" + QUERY + "' or '" + DIFF
+            + "'");
         return;
+      }
 
+      final String ifMatch = req.getHeader("If-Match");
+
+      if (ifMatch != null) {
+        final TrackedManifest trackedManifest = getTrackedManifest(componentManifest.getName());
+        final ComponentManifest latestManifest = trackedManifest != null
+            ? trackedManifest.getLatestManifest()
+            : null;
+
+        if (latestManifest == null
+            || !representationOf(trackedManifest, latestManifest).matchesStrongly(ifMatch)) {
+          res.sendError(412, "Manifest does not match If-Match");
+          return;
+        }
+        if (!trackedManifest.setLatestManifest(componentManifest, latestManifest)) {
+          res.sendError(409, "Manifest was changed by another update");
+          return;
+        }
+      } else {
+        try {
+          getOrCreateTrackedManifest(componentManifest.getName())
+              .submitLatestManifest(componentManifest);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          res.sendError(503, "Interrupted while saving the manifest");
+          return;
+        } catch (IOException e) {
+          res.sendError(500, "Failed to store the manifest");
+          return;
+        }
       }
+
+      if (manifestName == null) {
+        setDefaultManifest(componentManifest.getName());
+      }
+      res.setStatus(200);
+      return;
     }
     res.sendError(400, "NOT VALID");
   }
 
-  private String getRequestBody(StaplerRequest req) {
-    String body = "";
-    BufferedReader br;
+  private void handlePatch(TrackedManifest trackedManifest, StaplerRequest req,
+      StaplerResponse res) throws IOException {
+    final String contentType = req.getContentType();
+    if (contentType == null || !contentType.startsWith("application/json")) {
+      res.sendError(415, "Content-Type must be application/json");
+      return;
+    }
 
-    try (BufferedReader bufferedReader = br = req.getReader()) {
-      body = IOUtils.toString(br);
-    } catch (IOException e) {
-      return body;
+    if (req.getContentLength() > MAX_REQUEST_SIZE) {
+      res.sendError(413, "Request body is larger than " + MAX_REQUEST_SIZE + " bytes");
+      return;
     }
-    return body;
 
+    final Bump bump;
+    try {
+      final String bumpParameter = req.getParameter("bump");
+      bump = bumpParameter != null
+          ? Bump.valueOf(bumpParameter.toUpperCase(Locale.ENGLISH))
+          : Bump.PATCH;
+    } catch (IllegalArgumentException e) {
+      res.sendError(400, "bump must be one of " + Arrays.toString(Bump.values()));
+      return;
+    }
+
+    final Map<String, String> versions;
+
+    try (Reader reader = req.getReader()) {
+      versions = ManifestJson.readComponentVersions(reader, MAX_REQUEST_SIZE, MAX_COMPONENTS);
+    } catch (ManifestRequestException e) {
+      LOGGER.info("Rejected component update: " + e.getMessage());
+      res.sendError(e.getStatus(), e.getMessage());
+      return;
+    }
+
+    LOGGER.info("Updating " + versions.size() + " components in " + trackedManifest.getName());
+
+    final ComponentManifest latestManifest = trackedManifest.getLatestManifest();
+    if (latestManifest == null) {
+      res.sendError(409, "No manifest has been published yet");
+      return;
+    }
+
+    // Checked against the manifest the update is applied to, so no other update slips between.
+    final String ifMatch = req.getHeader("If-Match");
+    if (ifMatch != null
+        && !representationOf(trackedManifest, latestManifest).matchesStrongly(ifMatch)) {
+      res.sendError(412, "Manifest does not match If-Match");
+      return;
+    }
+
+    final List<String> unknown = new ArrayList<>();
+    for (String name : versions.keySet()) {
+      if (latestManifest.getComponent(name) == null) {
+        unknown.add(name);
+      }
+    }
+    if (!unknown.isEmpty()) {
+      res.sendError(400, "Unknown components: " + unknown);
+      return;
+    }
+
+    final ComponentManifest updatedManifest = ifMatch != null
+        ? trackedManifest.updateComponentsInManifest(versions, bump, latestManifest)
+        : trackedManifest.updateComponentsInManifest(versions, bump);
+    if (updatedManifest == null && ifMatch != null
+        && trackedManifest.getLatestManifest() != latestManifest) {
+      res.sendError(409, "Manifest was changed by another update");
+      return;
+    }
+    if (updatedManifest == null) {
+      res.sendError(409, "Manifest version " + latestManifest.getVersion()
+          + " is not a semantic version and can not be incremented");
+      return;
+    }
+
+    final ManifestRepresentation representation = ManifestRepresentation.of(updatedManifest);
+    res.setHeader("ETag", representation.getETag());
+    res.setContentType("application/json;charset=UTF-8");
+    res.setContentLength(representation.getJson().length);
+    res.getOutputStream().write(representation.getJson());
   }
 
+  // The cached representation unless the manifest has been replaced since it was read.
+  private static ManifestRepresentation representationOf(TrackedManifest trackedManifest,
+      ComponentManifest componentManifest) throws IOException {
+    final ManifestRepresentation representation = trackedManifest.getRepresentation();
+    return representation.getManifest() == componentManifest
+        ? representation
+        : ManifestRepresentation.of(componentManifest);
+  }
 }
@@ -0,0 +1,223 @@
+package com.joelws.componenttracker;
+/*
+Copyright 2016 Joel Whittaker-Smith
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and histograms for the endpoint, publisher and deploy paths. Recording only touches
+ * striped {@link LongAdder}s, so it is cheap enough to leave on under contention.
+ */
+public final class ComponentTrackerMetrics {
+
+  private static final boolean ENABLED = !Boolean
+      .getBoolean(ComponentTrackerMetrics.class.getName() + ".disabled");
+
+  private static final ComponentTrackerMetrics INSTANCE = new ComponentTrackerMetrics();
+
+  private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+  private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+  ComponentTrackerMetrics() {
+  }
+
+  public static ComponentTrackerMetrics getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Name of a metric tracked separately for each value of a label, e.g. one per Nexus URL.
+   */
+  public static String labelled(String name, String label, String value) {
+    return name + '{' + label + '=' + value + '}';
+  }
+
+  public void increment(String name) {
+    add(name, 1);
+  }
+
+  public void add(String name, long delta) {
+    if (!ENABLED) {
+      return;
+    }
+
+    LongAdder counter = counters.get(name);
+    if (counter == null) {
+      counter = counters.computeIfAbsent(name, key -> new LongAdder());
+    }
+    counter.add(delta);
+  }
+
+  public void record(String name, long value) {
+    if (!ENABLED) {
+      return;
+    }
+
+    Histogram histogram = histograms.get(name);
+    if (histogram == null) {
+      histogram = histograms.computeIfAbsent(name, key -> new Histogram());
+    }
+    histogram.record(value);
+  }
+
+  public long getCount(String name) {
+    final LongAdder counter = counters.get(name);
+    return counter != null ? counter.sum() : 0;
+  }
+
+  public Histogram getHistogram(String name) {
+    return histograms.get(name);
+  }
+
+  /**
+   * Writes every counter and histogram, plus gauges sampled by the caller, as one JSON object.
+   */
+  public void write(Writer writer, Map<String, ? extends Number> gauges) throws IOException {
+    final JsonWriter json = new JsonWriter(writer);
+
+    json.beginObject();
+
+    json.name("enabled").value(ENABLED);
+
+    json.name("gauges").beginObject();
+    for (Map.Entry<String, ? extends Number> gauge : new TreeMap<>(gauges).entrySet()) {
+      json.name(gauge.getKey()).value(gauge.getValue());
+    }
+    json.endObject();
+
+    json.name("counters").beginObject();
+    for (Map.Entry<String, LongAdder> counter : new TreeMap<>(counters).entrySet()) {
+      json.name(counter.getKey()).value(counter.getValue().sum());
+    }
+    json.endObject();
+
+    json.name("histograms").beginObject();
+    for (Map.Entry<String, Histogram> histogram : new TreeMap<>(histograms).entrySet()) {
+      json.name(histogram.getKey());
+      histogram.getValue().write(json);
+    }
+    json.endObject();
+
+    json.endObject();
+    json.flush();
+  }
+
+  /**
+   * Counts values in power-of-two buckets, so quantiles are accurate to within a factor of two.
+   * Values are expected to be non-negative, e.g. nanoseconds or bytes.
+   */
+  public static final class Histogram {
+
+    private static final int BUCKETS = 64;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder sum = new LongAdder();
+
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    Histogram() {
+      for (int i = 0; i < BUCKETS; i++) {
+        buckets[i] = new LongAdder();
+      }
+    }
+
+    public void record(long value) {
+      value = Math.max(value, 0);
+      buckets[bucket(value)].increment();
+      count.increment();
+      sum.add(value);
+      max.accumulate(value);
+    }
+
+    public long getCount() {
+      return count.sum();
+    }
+
+    public long getSum() {
+      return sum.sum();
+    }
+
+    public long getMax() {
+      return max.get();
+    }
+
+    /**
+     * Upper bound of the bucket holding the given quantile, capped at the largest value seen.
+     */
+    public long getQuantile(double quantile) {
+      final long total = getCount();
+
+      if (total == 0) {
+        return 0;
+      }
+
+      final long rank = (long) Math.ceil(quantile * total);
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += buckets[i].sum();
+        if (seen >= rank) {
+          return Math.min(upperBound(i), getMax());
+        }
+      }
+      return getMax();
+    }
+
+    // Bucket 0 holds zero, bucket i holds values in [2^(i-1), 2^i).
+    private static int bucket(long value) {
+      return Math.min(BUCKETS - Long.numberOfLeadingZeros(value), BUCKETS - 1);
+    }
+
+    private static long upperBound(int bucket) {
+      return bucket == 0 ? 0 : bucket >= BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+
+    private void write(JsonWriter json) throws IOException {
+      final long total = getCount();
+
+      json.beginObject();
+      json.name("count").value(total);
+      json.name("sum").value(getSum());
+      json.name("max").value(getMax());
+      json.name("mean").value(total == 0 ? 0 : (double) getSum() / total);
+      json.name("p50").value(getQuantile(0.5));
+      json.name("p90").value(getQuantile(0.9));
+      json.name("p99").value(getQuantile(0.99));
+
+      json.name("buckets").beginObject();
+      for (int i = 0; i < BUCKETS; i++) {
+        final long bucketCount = buckets[i].sum();
+        if (bucketCount > 0) {
+          json.name(Long.toString(upperBound(i))).value(bucketCount);
+        }
+      }
+      json.endObject();
+
+      json.endObject();
+    }
+  }
+}
@@ -16,37 +16,55 @@ limitations under the License.
 */
 
 import com.joelws.componenttracker.model.Component;
+import com.joelws.componenttracker.model.ComponentManifest;
+import com.joelws.componenttracker.model.SemanticVersion.Bump;
 import hudson.EnvVars;
 import hudson.Extension;
 import hudson.Launcher;
+import hudson.Util;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
+import hudson.model.AutoCompletionCandidates;
 import hudson.model.BuildListener;
 import hudson.model.Descriptor;
 import hudson.model.Result;
+import hudson.model.TaskListener;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.BuildStepMonitor;
 import hudson.tasks.Notifier;
 import hudson.tasks.Publisher;
+import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
 import hudson.util.Secret;
-import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import jenkins.model.Jenkins;
 import net.sf.json.JSONObject;
-import org.eclipse.aether.deployment.DeploymentException;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 public class ComponentTrackerPublisher extends Notifier {
 
-  private static final Logger LOGGER = LoggerFactory.getLogger(ComponentTrackerPublisher.class);
-
   private String component;
 
+  private String manifest;
+
+  private String components;
+
+  private String componentPattern;
+
+  private Bump bump;
+
   @DataBoundConstructor
   public ComponentTrackerPublisher(String component) {
     this.component = component;
@@ -60,54 +78,174 @@ public class ComponentTrackerPublisher extends Notifier {
     this.component = component;
   }
 
+  public String getManifest() {
+    return manifest;
+  }
+
+  @DataBoundSetter
+  public void setManifest(String manifest) {
+    this.manifest = Util.fixEmptyAndTrim(manifest);
+  }
+
+  public String getComponents() {
+    return components;
+  }
+
+  /**
+   * Further components built by the job, separated by commas or whitespace.
+   */
+  @DataBoundSetter
+  public void setComponents(String components) {
+    this.components = Util.fixEmptyAndTrim(components);
+  }
+
+  public String getComponentPattern() {
+    return componentPattern;
+  }
+
+  /**
+   * Regular expression over the build's environment variable names, matching variables that
+   * are named after a manifest component are updated too.
+   */
+  @DataBoundSetter
+  public void setComponentPattern(String componentPattern) {
+    this.componentPattern = Util.fixEmptyAndTrim(componentPattern);
+  }
+
+  public Bump getBump() {
+    return bump != null ? bump : Bump.PATCH;
+  }
+
+  /**
+   * Which part of the manifest version is incremented, the patch unless set.
+   */
+  @DataBoundSetter
+  public void setBump(Bump bump) {
+    this.bump = bump;
+  }
+
   @Override
   public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
       throws InterruptedException, IOException {
 
     final EnvVars envVars = build.getEnvironment(listener);
 
-    final String component = getComponent();
+    final ComponentTrackerEndpoint endpoint = ComponentTrackerEndpoint.getInstance();
+    final TrackedManifest trackedManifest = manifest != null
+        ? endpoint.getTrackedManifest(manifest)
+        : endpoint.getDefaultManifest();
 
-    final String componentVersion = envVars.get(component);
+    final ComponentManifest latestManifest = trackedManifest != null
+        ? trackedManifest.getLatestManifest()
+        : null;
+    final Map<String, String> versions =
+        getComponentVersions(envVars, latestManifest, listener);
 
-    String manifestFileLocation = File.separator + "tmp";
-
-    if (!launcher.isUnix()) {
-      manifestFileLocation = System.getenv("TEMP");
+    if (versions == null) {
+      build.setResult(Result.FAILURE);
+      return true;
+    }
+    if (versions.isEmpty()) {
+      return true;
     }
 
-    manifestFileLocation += File.separator + "hts-component-manifest.json";
-
-    if (componentVersion != null) {
-      try {
-
-        MavenTransport.getInstance().archiveManifest(manifestFileLocation,
-            getDescriptor().getNexusUrl(),
-            getDescriptor().getNexusUser(),
-            getDescriptor().getNexusPassword());
+    if (trackedManifest == null) {
+      listener.error("No manifest named " + (manifest != null ? manifest : "as default"));
+      build.setResult(Result.FAILURE);
+      return true;
+    }
 
-        ComponentTrackerEndpoint
-            .getInstance()
-            .updateComponentInManifest(component, componentVersion);
+    // Components already at their version would only cause a needless bump and deploy.
+    final Iterator<Map.Entry<String, String>> iterator = versions.entrySet().iterator();
+    while (iterator.hasNext()) {
+      final Map.Entry<String, String> version = iterator.next();
+      final Component current = latestManifest != null
+          ? latestManifest.getComponent(version.getKey())
+          : null;
+      if (current != null && version.getValue().equals(current.getVersion())) {
+        iterator.remove();
+      }
+    }
 
+    if (versions.isEmpty()) {
+      listener.getLogger().println("Components of " + trackedManifest.getName()
+          + " are already at their versions, nothing to deploy");
+      return true;
+    }
 
-      } catch (final NumberFormatException nfe) {
+    final long started = System.nanoTime();
 
-        LOGGER.error("Version is wrong format", nfe);
+    try {
 
-        build.setResult(Result.FAILURE);
+      // Update first so the deployed manifest includes this build's versions.
+      final ComponentManifest updatedManifest =
+          trackedManifest.updateComponentsInManifest(versions, getBump());
 
-      } catch (DeploymentException | IOException e) {
-        LOGGER.error("Deployment failed", e);
+      if (updatedManifest == null) {
+        listener.error("Could not update " + versions.keySet() + " in manifest "
+            + trackedManifest.getName());
         build.setResult(Result.FAILURE);
+        return true;
       }
 
+      DeploymentQueue.getInstance().submit(updatedManifest);
+
+    } catch (IOException e) {
+      e.printStackTrace(listener.error("Deployment could not be queued"));
+      build.setResult(Result.FAILURE);
+    } finally {
+      ComponentTrackerMetrics.getInstance()
+          .record("publisher.nanos", System.nanoTime() - started);
     }
 
     return true;
   }
 
 
+  /**
+   * The versions of the named components set in the build environment, plus those of every
+   * manifest component whose environment variable matches the pattern.
+   *
+   * @return null if the pattern is not a regular expression, which is reported to the listener
+   */
+  Map<String, String> getComponentVersions(Map<String, String> envVars,
+      ComponentManifest latestManifest, TaskListener listener) {
+    final Map<String, String> versions = new LinkedHashMap<>();
+
+    final List<String> names = new ArrayList<>();
+    if (component != null) {
+      names.add(component);
+    }
+    if (components != null) {
+      names.addAll(Arrays.asList(components.trim().split("[,\\s]+")));
+    }
+    for (String name : names) {
+      final String version = envVars.get(name);
+      if (!name.isEmpty() && version != null) {
+        versions.put(name, version);
+      }
+    }
+
+    if (componentPattern != null && latestManifest != null) {
+      final Pattern pattern;
+      try {
+        pattern = Pattern.compile(componentPattern);
+      } catch (PatternSyntaxException e) {
+        listener.error("Component pattern " + componentPattern + " is not a regular expression: "
+            + e.getDescription());
+        return null;
+      }
+      for (Map.Entry<String, String> variable : envVars.entrySet()) {
+        if (pattern.matcher(variable.getKey()).matches()
+            && latestManifest.getComponent(variable.getKey()) != null) {
+          versions.put(variable.getKey(), variable.getValue());
+        }
+      }
+    }
+
+    return versions;
+  }
+
   @Override
   public BuildStepMonitor getRequiredMonitorService() {
     return BuildStepMonitor.NONE;
@@ -123,40 +261,67 @@ public class ComponentTrackerPublisher extends Notifier {
   @Extension
   public static final class DescriptorImpl extends BuildStepDescriptor<Publisher> {
 
+    private static final String DEFAULT_GROUP_ID = "net.atos.hts";
+
+    private static final int AUTO_COMPLETE_LIMIT = Integer
+        .getInteger(ComponentTrackerPublisher.class.getName() + ".autoCompleteLimit", 50);
+
+    // Only read to migrate configuration saved before several repositories were supported.
     private String nexusUrl;
 
     private String nexusUser;
 
     private Secret nexusPassword;
 
+    private String groupId;
+
+    private List<DeploymentTarget> targets;
+
+    private int quorum;
+
     private List<Component> componentList;
 
+    // Rebuilt from componentList on first use after it changes.
+    private transient volatile ComponentCatalogue catalogue;
+
     public DescriptorImpl() {
       load();
+
+      if (nexusUrl != null && targets == null) {
+        targets = new ArrayList<>(Collections.singletonList(
+            new DeploymentTarget(nexusUrl, null, nexusUser, nexusPassword)));
+        nexusUrl = null;
+        nexusUser = null;
+        nexusPassword = null;
+        save();
+      }
     }
 
-    public String getNexusUrl() {
-      return nexusUrl;
+    public List<DeploymentTarget> getTargets() {
+      return targets != null ? targets : Collections.<DeploymentTarget>emptyList();
     }
 
-    public void setNexusUrl(String nexusUrl) {
-      this.nexusUrl = nexusUrl;
+    public void setTargets(List<DeploymentTarget> targets) {
+      this.targets = targets;
     }
 
-    public String getNexusUser() {
-      return nexusUser;
+    /**
+     * How many targets must accept a deploy for it to succeed, zero or less for all of them.
+     */
+    public int getQuorum() {
+      return quorum;
     }
 
-    public void setNexusUser(String nexusUser) {
-      this.nexusUser = nexusUser;
+    public void setQuorum(int quorum) {
+      this.quorum = quorum;
     }
 
-    public Secret getNexusPassword() {
-      return nexusPassword;
+    public String getGroupId() {
+      return groupId != null ? groupId : DEFAULT_GROUP_ID;
     }
 
-    public void setNexusPassword(Secret nexusPassword) {
-      this.nexusPassword = nexusPassword;
+    public void setGroupId(String groupId) {
+      this.groupId = groupId;
     }
 
     public List<Component> getComponentList() {
@@ -165,6 +330,16 @@ public class ComponentTrackerPublisher extends Notifier {
 
     public void setComponentList(List<Component> componentList) {
       this.componentList = componentList;
+      catalogue = null;
+    }
+
+    ComponentCatalogue getCatalogue() {
+      ComponentCatalogue current = catalogue;
+      if (current == null) {
+        current = ComponentCatalogue.of(componentList);
+        catalogue = current;
+      }
+      return current;
     }
 
     @Override
@@ -177,23 +352,40 @@ public class ComponentTrackerPublisher extends Notifier {
       return "Publish manifest to nexus";
     }
 
+    public FormValidation doCheckComponentPattern(@QueryParameter String value) {
+      try {
+        if (Util.fixEmptyAndTrim(value) != null) {
+          Pattern.compile(value);
+        }
+        return FormValidation.ok();
+      } catch (PatternSyntaxException e) {
+        return FormValidation.error("Not a regular expression: " + e.getDescription());
+      }
+    }
+
     public ListBoxModel doFillComponentItems() {
-      ListBoxModel items = new ListBoxModel();
-      for (Component component : getComponentList()) {
-        items.add(component.getName());
+      return getCatalogue().getItems();
+    }
+
+    public AutoCompletionCandidates doAutoCompleteComponents(@QueryParameter String value) {
+      final AutoCompletionCandidates candidates = new AutoCompletionCandidates();
+      for (String name : getCatalogue().search(value, AUTO_COMPLETE_LIMIT)) {
+        candidates.add(name);
       }
-      return items;
+      return candidates;
     }
 
     @Override
     public boolean configure(StaplerRequest req, JSONObject formData)
         throws Descriptor.FormException {
 
-      nexusUrl = formData.getString("nexusUrl");
-      nexusUser = formData.getString("nexusUser");
-      nexusPassword = Secret.fromString(formData.getString("nexusPassword"));
+      groupId = Util.fixEmptyAndTrim(formData.optString("groupId"));
+      targets = req.bindJSONToList(DeploymentTarget.class, formData.get("targets"));
+      quorum = formData.optInt("quorum", 0);
       componentList = req.bindJSONToList(Component.class, formData.get("componentList"));
+      catalogue = null;
       save();
+      MavenTransport.getInstance().reset();
       return super.configure(req, formData);
     }
   }
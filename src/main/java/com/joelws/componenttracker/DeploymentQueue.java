@@ -0,0 +1,317 @@
+package com.joelws.componenttracker;
+/*
+Copyright 2016 Joel Whittaker-Smith
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import com.joelws.componenttracker.model.ComponentManifest;
+import hudson.XmlFile;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.init.Terminator;
+import hudson.model.Saveable;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import jenkins.model.Jenkins;
+import org.eclipse.aether.deployment.DeploymentException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Deploys manifest snapshots to Nexus in the background. Snapshots of the same manifest that are
+ * waiting for a worker are merged into a single deploy request.
+ */
+public class DeploymentQueue implements Saveable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(DeploymentQueue.class);
+
+  private static final String PROPERTY_PREFIX = DeploymentQueue.class.getName();
+
+  private static final int CAPACITY = Integer.getInteger(PROPERTY_PREFIX + ".capacity", 100);
+
+  private static final int WORKERS = Integer.getInteger(PROPERTY_PREFIX + ".workers", 2);
+
+  private static final int MAX_ATTEMPTS = Integer.getInteger(PROPERTY_PREFIX + ".maxAttempts", 5);
+
+  private static final long INITIAL_BACKOFF_MILLIS = Long
+      .getLong(PROPERTY_PREFIX + ".initialBackoffMillis", 1000L);
+
+  private static final long MAX_BACKOFF_MILLIS = Long
+      .getLong(PROPERTY_PREFIX + ".maxBackoffMillis", 60000L);
+
+  private static final long SUBMIT_TIMEOUT_SECONDS = Long
+      .getLong(PROPERTY_PREFIX + ".submitTimeoutSeconds", 30L);
+
+  private static volatile DeploymentQueue instance;
+
+  private final transient Semaphore capacity = new Semaphore(CAPACITY);
+
+  private final transient Map<String, Batch> batches = new LinkedHashMap<>();
+
+  private final transient ScheduledExecutorService executor = new ScheduledThreadPoolExecutor(
+      WORKERS,
+      new NamingThreadFactory(new DaemonThreadFactory(), "ComponentTracker.DeploymentQueue"));
+
+  private List<ComponentManifest> pending = new ArrayList<>();
+
+  DeploymentQueue() {
+  }
+
+  public static DeploymentQueue getInstance() {
+    DeploymentQueue result = instance;
+    if (result == null) {
+      synchronized (DeploymentQueue.class) {
+        result = instance;
+        if (result == null) {
+          result = new DeploymentQueue();
+          result.load();
+          instance = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  @Initializer(after = InitMilestone.JOB_LOADED)
+  public static void init() {
+    getInstance();
+  }
+
+  @Terminator
+  public static void shutdown() {
+    final DeploymentQueue queue = instance;
+    if (queue != null) {
+      queue.executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Queues a copy of the manifest for deployment, waiting for space when the queue is full.
+   *
+   * @return completes once the manifest is deployed, or exceptionally when deployment is given up
+   */
+  public CompletableFuture<Void> submit(ComponentManifest componentManifest)
+      throws IOException, InterruptedException {
+
+    if (componentManifest == null) {
+      throw new IOException("No manifest has been published yet");
+    }
+
+    if (!capacity.tryAcquire(SUBMIT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+      throw new IOException("Deployment queue is full");
+    }
+
+    final CompletableFuture<Void> deployed = new CompletableFuture<>();
+    enqueue(componentManifest.copy(), deployed);
+    save();
+    return deployed;
+  }
+
+  public synchronized int getDepth() {
+    int depth = 0;
+    for (Batch batch : batches.values()) {
+      depth += batch.queued.size() + batch.deploying.size();
+    }
+    return depth;
+  }
+
+  @Override
+  public synchronized void save() {
+    pending = new ArrayList<>();
+    for (Batch batch : batches.values()) {
+      pending.addAll(batch.deploying.values());
+      pending.addAll(batch.queued.values());
+    }
+
+    try {
+      LOGGER.debug("Persisting deployment queue to filesystem");
+      getConfigFile().write(this);
+    } catch (IOException e) {
+      LOGGER.error(e.getMessage());
+    }
+  }
+
+  private synchronized void load() {
+    XmlFile file = getConfigFile();
+
+    if (file.exists()) {
+      try {
+        LOGGER.debug("Loading deployment queue from filesystem");
+        file.unmarshal(this);
+      } catch (IOException e) {
+        LOGGER.warn(String.format("Failed to load %s", file.getFile().getName()));
+      }
+    }
+
+    if (pending != null) {
+      for (ComponentManifest componentManifest : pending) {
+        capacity.tryAcquire();
+        enqueue(componentManifest, null);
+      }
+    }
+  }
+
+  private synchronized void enqueue(ComponentManifest componentManifest,
+      CompletableFuture<Void> deployed) {
+    Batch batch = batches.get(componentManifest.getName());
+
+    if (batch == null) {
+      batch = new Batch();
+      batches.put(componentManifest.getName(), batch);
+    }
+
+    if (batch.queued.put(componentManifest.getVersion(), componentManifest) != null) {
+      capacity.release();
+    }
+    if (deployed != null) {
+      batch.queuedCallbacks.add(deployed);
+    }
+
+    if (!batch.scheduled && batch.deploying.isEmpty()) {
+      schedule(componentManifest.getName(), batch, 0);
+    }
+  }
+
+  private void schedule(final String name, final Batch batch, final long delayMillis) {
+    batch.scheduled = true;
+    executor.schedule(new Runnable() {
+      @Override
+      public void run() {
+        drain(name);
+      }
+    }, delayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private void drain(String name) {
+    final List<ComponentManifest> deploying;
+
+    synchronized (this) {
+      final Batch batch = batches.get(name);
+      batch.scheduled = false;
+      for (ComponentManifest componentManifest : batch.queued.values()) {
+        if (batch.deploying.put(componentManifest.getVersion(), componentManifest) != null) {
+          capacity.release();
+        }
+      }
+      batch.queued.clear();
+      batch.deployingCallbacks.addAll(batch.queuedCallbacks);
+      batch.queuedCallbacks.clear();
+      deploying = new ArrayList<>(batch.deploying.values());
+    }
+
+    boolean deployed = false;
+    Throwable failure = null;
+
+    try {
+      deploy(deploying);
+      deployed = true;
+    } catch (DeploymentException | IOException | RuntimeException e) {
+      LOGGER.warn("Deployment of " + name + " failed", e);
+      failure = e;
+    } catch (Error e) {
+      LOGGER.error("Deployment of " + name + " failed", e);
+      failure = e;
+      throw e;
+    } finally {
+      // Even after an Error the batch is retried or given up, or it would never be drained again.
+      settle(name, deployed, failure);
+    }
+  }
+
+  private void settle(String name, boolean deployed, Throwable failure) {
+    final List<CompletableFuture<Void>> callbacks;
+
+    synchronized (this) {
+      final Batch batch = batches.get(name);
+
+      if (!deployed && ++batch.attempt < MAX_ATTEMPTS) {
+        final long backoff = Math.min(
+            INITIAL_BACKOFF_MILLIS << (batch.attempt - 1),
+            MAX_BACKOFF_MILLIS);
+        LOGGER.info(String.format("Retrying deployment of %s in %d ms", name, backoff));
+        schedule(name, batch, backoff);
+        return;
+      }
+
+      if (!deployed) {
+        LOGGER.error(String.format("Giving up on deployment of %s after %d attempts",
+            name, batch.attempt));
+      }
+
+      capacity.release(batch.deploying.size());
+      batch.deploying.clear();
+      batch.attempt = 0;
+      callbacks = new ArrayList<>(batch.deployingCallbacks);
+      batch.deployingCallbacks.clear();
+
+      if (batch.queued.isEmpty()) {
+        batches.remove(name);
+      } else {
+        schedule(name, batch, 0);
+      }
+    }
+    save();
+
+    for (CompletableFuture<Void> callback : callbacks) {
+      if (deployed) {
+        callback.complete(null);
+      } else {
+        callback.completeExceptionally(failure);
+      }
+    }
+  }
+
+  void deploy(List<ComponentManifest> componentManifests)
+      throws DeploymentException, IOException {
+    final ComponentTrackerPublisher.DescriptorImpl descriptor = Jenkins
+        .getInstance()
+        .getDescriptorByType(ComponentTrackerPublisher.DescriptorImpl.class);
+
+    MavenTransport.getInstance().archiveManifests(
+        componentManifests,
+        descriptor.getGroupId(),
+        descriptor.getTargets(),
+        descriptor.getQuorum());
+  }
+
+  private XmlFile getConfigFile() {
+    return new XmlFile(new File(Jenkins.getInstance().getRootDir(), getClass().getName() + ".xml"));
+  }
+
+  private static final class Batch {
+
+    private final Map<String, ComponentManifest> queued = new LinkedHashMap<>();
+
+    private final Map<String, ComponentManifest> deploying = new LinkedHashMap<>();
+
+    private final List<CompletableFuture<Void>> queuedCallbacks = new ArrayList<>();
+
+    private final List<CompletableFuture<Void>> deployingCallbacks = new ArrayList<>();
+
+    private boolean scheduled;
+
+    private int attempt;
+  }
+}
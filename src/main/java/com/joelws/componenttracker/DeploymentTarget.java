@@ -0,0 +1,97 @@
+package com.joelws.componenttracker;
+/*
+Copyright 2016 Joel Whittaker-Smith
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+import hudson.util.Secret;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * A Nexus repository manifests are deployed to.
+ */
+public class DeploymentTarget extends AbstractDescribableImpl<DeploymentTarget> {
+
+  private static final String DEFAULT_REPOSITORY = "releases";
+
+  private final String url;
+
+  private final String repository;
+
+  private final String user;
+
+  private final Secret password;
+
+  @DataBoundConstructor
+  public DeploymentTarget(String url, String repository, String user, Secret password) {
+    this.url = Util.fixEmptyAndTrim(url);
+    this.repository = Util.fixEmptyAndTrim(repository);
+    this.user = Util.fixEmptyAndTrim(user);
+    this.password = password;
+  }
+
+  public String getUrl() {
+    return url;
+  }
+
+  public String getRepository() {
+    return repository != null ? repository : DEFAULT_REPOSITORY;
+  }
+
+  public String getUser() {
+    return user;
+  }
+
+  public Secret getPassword() {
+    return password;
+  }
+
+  /**
+   * The URL of the hosted repository, always joined with '/' whatever the local file separator.
+   */
+  public String getRepositoryUrl() {
+    String base = url != null ? url : "";
+    while (base.endsWith("/")) {
+      base = base.substring(0, base.length() - 1);
+    }
+    return base + "/content/repositories/" + getRepository();
+  }
+
+  @Override
+  public String toString() {
+    return getRepositoryUrl();
+  }
+
+  @Extension
+  public static class DescriptorImpl extends Descriptor<DeploymentTarget> {
+
+    public FormValidation doCheckUrl(@QueryParameter String value) {
+      if (Util.fixEmptyAndTrim(value) == null) {
+        return FormValidation.error("Can't be empty!");
+      }
+      return FormValidation.ok();
+    }
+
+    @Override
+    public String getDisplayName() {
+      return "Nexus repository";
+    }
+  }
+}
@@ -0,0 +1,172 @@
+package com.joelws.componenttracker;
+/*
+Copyright 2016 Joel Whittaker-Smith
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import com.joelws.componenttracker.model.ComponentManifest;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Storage for controllers sharing JENKINS_HOME, e.g. an active/standby pair. Each manifest has a
+ * lock file holding the revision of the stored manifest. Commits take an exclusive lock on it,
+ * check the revision, write the config file and append to the history before releasing it, so a
+ * controller working from an outdated manifest loses the race instead of overwriting the other's
+ * update, and the controllers never append to the history at the same time.
+ */
+final class FileLockManifestStorage implements ManifestStorage {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(FileLockManifestStorage.class);
+
+  private static final long REFRESH_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(Long
+      .getLong(FileLockManifestStorage.class.getName() + ".refreshIntervalMillis", 1000L));
+
+  // File locks are held by the JVM, so threads of the same JVM are kept apart by these.
+  private static final ConcurrentMap<String, Object> MONITORS = new ConcurrentHashMap<>();
+
+  private final TrackedManifest trackedManifest;
+
+  private final File lockFile;
+
+  private final Object monitor;
+
+  // Revision last read from or written to the lock file, -1 before the first check.
+  private long storedRevision = -1;
+
+  private volatile long lastChecked;
+
+  private volatile boolean checked;
+
+  FileLockManifestStorage(TrackedManifest trackedManifest, File lockFile) {
+    this.trackedManifest = trackedManifest;
+    this.lockFile = lockFile;
+    this.monitor = monitor(lockFile);
+  }
+
+  /**
+   * Reloads the manifest when another controller has committed since it was last checked. Reads
+   * within the refresh interval are served from memory.
+   */
+  @Override
+  public void refresh() {
+    if (checked && System.nanoTime() - lastChecked < REFRESH_INTERVAL_NANOS) {
+      return;
+    }
+
+    synchronized (monitor) {
+      try (RandomAccessFile file = open();
+          FileLock lock = file.getChannel().lock(0, Long.MAX_VALUE, true)) {
+        final long revision = readRevision(file);
+        if (revision != storedRevision) {
+          reload(revision);
+        }
+      } catch (IOException e) {
+        LOGGER.warn("Failed to check " + lockFile + " for updates", e);
+      } finally {
+        lastChecked = System.nanoTime();
+        checked = true;
+      }
+    }
+  }
+
+  @Override
+  public boolean compareAndSet(ComponentManifest expected, ComponentManifest updated)
+      throws IOException {
+    final long expectedRevision = expected != null ? expected.getRevision() : 0;
+
+    synchronized (monitor) {
+      try (RandomAccessFile file = open(); FileLock lock = file.getChannel().lock()) {
+        final long revision = readRevision(file);
+
+        if (revision != expectedRevision) {
+          ComponentTrackerMetrics.getInstance().increment("storage.conflicts");
+          reload(revision);
+          return false;
+        }
+
+        if (!trackedManifest.swap(expected, updated)) {
+          return false;
+        }
+
+        try {
+          trackedManifest.getPersister().flushNow();
+          file.seek(0);
+          file.writeLong(updated.getRevision());
+          file.getChannel().force(false);
+        } catch (IOException e) {
+          trackedManifest.swap(updated, expected);
+          throw e;
+        }
+
+        storedRevision = updated.getRevision();
+        trackedManifest.record(updated);
+        return true;
+      }
+    }
+  }
+
+  // Every commit has been written by compareAndSet, and unlocked writes must not be made.
+  @Override
+  public void save() {
+  }
+
+  private void reload(long revision) throws IOException {
+    final ComponentManifest stored = TrackedManifest.read(trackedManifest.getConfigFile());
+
+    if (stored != null) {
+      stored.setRevision(revision);
+    }
+    final boolean changed = storedRevision >= 0;
+    storedRevision = revision;
+    trackedManifest.reloaded(stored, changed);
+  }
+
+  private RandomAccessFile open() throws IOException {
+    final File directory = lockFile.getParentFile();
+    if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+      throw new IOException("Failed to create " + directory);
+    }
+    return new RandomAccessFile(lockFile, "rw");
+  }
+
+  // A missing or empty lock file stands for a manifest that was never committed through it.
+  private static long readRevision(RandomAccessFile file) throws IOException {
+    if (file.length() < 8) {
+      return 0;
+    }
+    file.seek(0);
+    return file.readLong();
+  }
+
+  private static Object monitor(File lockFile) {
+    String key;
+    try {
+      key = lockFile.getCanonicalPath();
+    } catch (IOException e) {
+      key = lockFile.getAbsolutePath();
+    }
+
+    final Object created = new Object();
+    final Object existing = MONITORS.putIfAbsent(key, created);
+    return existing != null ? existing : created;
+  }
+}
@@ -0,0 +1,486 @@
+package com.joelws.componenttracker;
+/*
+Copyright 2016 Joel Whittaker-Smith
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import com.google.gson.stream.JsonWriter;
+import com.joelws.componenttracker.model.ComponentManifest;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Recent manifest changes, kept in a bounded ring so subscribers can resume from a token.
+ * Publishing only appends to the ring and wakes parked polls, writers never wait for a
+ * subscriber. A subscriber that falls further behind than the ring skips ahead to the oldest
+ * change still held and is told that it missed some.
+ */
+class ManifestChangeFeed {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ManifestChangeFeed.class);
+
+  private static final String PROPERTY_PREFIX = ManifestChangeFeed.class.getName();
+
+  private static final int CAPACITY = Integer.getInteger(PROPERTY_PREFIX + ".capacity", 1024);
+
+  private static final int BATCH_SIZE = Integer.getInteger(PROPERTY_PREFIX + ".batchSize", 256);
+
+  // Polls holding a request thread, only used when the container can not suspend requests.
+  private static final int MAX_BLOCKING_POLLS = Integer
+      .getInteger(PROPERTY_PREFIX + ".maxBlockingPolls", 16);
+
+  private static final long RECONNECT_MILLIS = Long
+      .getLong(PROPERTY_PREFIX + ".reconnectMillis", 1000L);
+
+  private static final ManifestChangeFeed INSTANCE =
+      new ManifestChangeFeed(CAPACITY, MAX_BLOCKING_POLLS);
+
+  // Sequences start again after a restart, so tokens carry the start time of the feed.
+  private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+
+  private final Change[] ring;
+
+  private final int maxBlockingPolls;
+
+  private final Semaphore blockingPolls;
+
+  private final List<Listener> listeners = new ArrayList<>();
+
+  private long head;
+
+  ManifestChangeFeed(int capacity, int maxBlockingPolls) {
+    this.ring = new Change[capacity];
+    this.maxBlockingPolls = maxBlockingPolls;
+    this.blockingPolls = new Semaphore(maxBlockingPolls);
+  }
+
+  static ManifestChangeFeed getInstance() {
+    return INSTANCE;
+  }
+
+  void publish(ComponentManifest componentManifest) {
+    final List<Runnable> woken;
+
+    synchronized (this) {
+      head++;
+      ring[(int) (head % ring.length)] = new Change(token(head), componentManifest.getName(),
+          componentManifest.getVersion(), componentManifest.getRevision(),
+          System.currentTimeMillis());
+      notifyAll();
+
+      if (listeners.isEmpty()) {
+        return;
+      }
+      // Subscribers to other manifests stay parked, they would only poll and park again.
+      woken = new ArrayList<>();
+      final Iterator<Listener> iterator = listeners.iterator();
+      while (iterator.hasNext()) {
+        final Listener listener = iterator.next();
+        if (listener.manifest == null || listener.manifest.equals(componentManifest.getName())) {
+          woken.add(listener.runnable);
+          iterator.remove();
+        }
+      }
+    }
+
+    for (Runnable listener : woken) {
+      try {
+        listener.run();
+      } catch (RuntimeException e) {
+        LOGGER.warn("Failed to wake a change feed subscriber", e);
+      }
+    }
+  }
+
+  /**
+   * Changes after the token, or only those published from now on when the token is null.
+   *
+   * @param manifest only return changes to this manifest, or to any manifest when null
+   */
+  synchronized Batch poll(String token, String manifest) {
+    final long oldest = Math.max(1, head - ring.length + 1);
+    long sequence = token != null ? sequence(token) : head;
+    boolean skipped = false;
+
+    if (sequence < oldest - 1 || sequence > head) {
+      sequence = oldest - 1;
+      skipped = true;
+      ComponentTrackerMetrics.getInstance().increment("changes.skipped");
+    }
+
+    final List<Change> changes = new ArrayList<>();
+    while (sequence < head && changes.size() < BATCH_SIZE) {
+      sequence++;
+      final Change change = ring[(int) (sequence % ring.length)];
+      if (manifest == null || manifest.equals(change.getManifest())) {
+        changes.add(change);
+      }
+    }
+    return new Batch(changes, token(sequence), skipped);
+  }
+
+  /**
+   * Waits on the calling thread for changes after an empty batch. Only a bounded number of
+   * threads wait at once, beyond that the batch is returned as it is and the subscriber polls
+   * again.
+   */
+  Batch await(Batch batch, String manifest, long timeoutMillis) throws InterruptedException {
+    if (!batch.isEmpty() || !blockingPolls.tryAcquire()) {
+      return batch;
+    }
+
+    try {
+      final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+      Batch result = batch;
+
+      synchronized (this) {
+        long remaining;
+        while ((result = poll(result.getToken(), manifest)).isEmpty()
+            && (remaining = deadline - System.nanoTime()) > 0) {
+          awaiting();
+          TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+      }
+      return result;
+    } finally {
+      blockingPolls.release();
+    }
+  }
+
+  // Called holding the monitor, so nothing is published until the caller is waiting for it.
+  void awaiting() {
+  }
+
+  /**
+   * Runs the listener once, on the publishing thread, when the next change to the manifest is
+   * published.
+   *
+   * @param manifest only wake the listener for changes to this manifest, or to any when null
+   * @return false without registering the listener if changes were published after the batch
+   */
+  synchronized boolean listen(Batch batch, String manifest, Runnable listener) {
+    if (!batch.getToken().equals(token(head))) {
+      return false;
+    }
+    listeners.add(new Listener(manifest, listener));
+    return true;
+  }
+
+  synchronized void unlisten(Runnable listener) {
+    final Iterator<Listener> iterator = listeners.iterator();
+    while (iterator.hasNext()) {
+      if (iterator.next().runnable == listener) {
+        iterator.remove();
+      }
+    }
+  }
+
+  synchronized int getWaiting() {
+    return listeners.size() + maxBlockingPolls - blockingPolls.availablePermits();
+  }
+
+  /**
+   * Answers with the changes after the token, holding the request until there are some or the
+   * timeout expires. The request is suspended when the container supports it, so idle
+   * subscribers do not hold a request thread.
+   */
+  void subscribe(HttpServletRequest req, HttpServletResponse res, String token, String manifest,
+      boolean eventStream, long timeoutMillis) throws IOException {
+    final Batch batch = poll(token, manifest);
+
+    if (!batch.isEmpty() || timeoutMillis <= 0) {
+      write(res, batch, eventStream);
+      return;
+    }
+
+    if (req.isAsyncSupported()) {
+      final AsyncContext context = req.startAsync();
+      context.setTimeout(timeoutMillis);
+      new AsyncPoll(context, manifest, eventStream).park(batch);
+      return;
+    }
+
+    try {
+      write(res, await(batch, manifest, timeoutMillis), eventStream);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      write(res, batch, eventStream);
+    }
+  }
+
+  private static void write(HttpServletResponse res, Batch batch, boolean eventStream)
+      throws IOException {
+    res.setHeader("Cache-Control", "no-cache");
+    res.setContentType(eventStream
+        ? "text/event-stream;charset=UTF-8"
+        : "application/json;charset=UTF-8");
+    try (Writer writer = res.getWriter()) {
+      if (eventStream) {
+        batch.writeEvents(writer);
+      } else {
+        batch.writeJson(writer);
+      }
+    }
+  }
+
+  private String token(long sequence) {
+    return epoch + '.' + sequence;
+  }
+
+  // Negative for tokens handed out before a restart or not handed out at all.
+  private long sequence(String token) {
+    final int separator = token.lastIndexOf('.');
+
+    if (separator < 0 || !epoch.equals(token.substring(0, separator))) {
+      return -1;
+    }
+    try {
+      return Long.parseLong(token.substring(separator + 1));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  static final class Change {
+
+    private final String token;
+
+    private final String manifest;
+
+    private final String version;
+
+    private final long revision;
+
+    private final long timestamp;
+
+    Change(String token, String manifest, String version, long revision, long timestamp) {
+      this.token = token;
+      this.manifest = manifest;
+      this.version = version;
+      this.revision = revision;
+      this.timestamp = timestamp;
+    }
+
+    String getToken() {
+      return token;
+    }
+
+    String getManifest() {
+      return manifest;
+    }
+
+    String getVersion() {
+      return version;
+    }
+
+    long getRevision() {
+      return revision;
+    }
+
+    private void write(JsonWriter json) throws IOException {
+      json.beginObject();
+      json.name("token").value(token);
+      json.name("manifest").value(manifest);
+      json.name("version").value(version);
+      json.name("revision").value(revision);
+      json.name("timestamp").value(timestamp);
+      json.endObject();
+    }
+  }
+
+  static final class Batch {
+
+    private final List<Change> changes;
+
+    private final String token;
+
+    private final boolean skipped;
+
+    Batch(List<Change> changes, String token, boolean skipped) {
+      this.changes = Collections.unmodifiableList(changes);
+      this.token = token;
+      this.skipped = skipped;
+    }
+
+    List<Change> getChanges() {
+      return changes;
+    }
+
+    /**
+     * Resumes after the last change looked at, including those filtered out.
+     */
+    String getToken() {
+      return token;
+    }
+
+    /**
+     * Whether changes were lost between the token polled with and this batch.
+     */
+    boolean isSkipped() {
+      return skipped;
+    }
+
+    boolean isEmpty() {
+      return changes.isEmpty() && !skipped;
+    }
+
+    void writeJson(Writer writer) throws IOException {
+      final JsonWriter json = new JsonWriter(writer);
+      json.beginObject();
+      json.name("token").value(token);
+      json.name("skipped").value(skipped);
+      json.name("changes").beginArray();
+      for (Change change : changes) {
+        change.write(json);
+      }
+      json.endArray();
+      json.endObject();
+      json.flush();
+    }
+
+    /**
+     * Server-Sent Events, ending with the resume token so the browser reconnects from it even
+     * when the batch holds no change.
+     */
+    void writeEvents(Writer writer) throws IOException {
+      writer.write("retry: " + RECONNECT_MILLIS + "\n\n");
+      if (skipped) {
+        writer.write("event: skipped\ndata: {}\n\n");
+      }
+      for (Change change : changes) {
+        final StringWriter data = new StringWriter();
+        final JsonWriter json = new JsonWriter(data);
+        change.write(json);
+        json.flush();
+        writer.write("id: " + change.getToken() + "\nevent: manifest\ndata: " + data + "\n\n");
+      }
+      writer.write("id: " + token + "\n\n");
+      writer.flush();
+    }
+  }
+
+  private static final class Listener {
+
+    private final String manifest;
+
+    private final Runnable runnable;
+
+    Listener(String manifest, Runnable runnable) {
+      this.manifest = manifest;
+      this.runnable = runnable;
+    }
+  }
+
+  /**
+   * A poll suspended without a request thread. It is answered on a container thread once a
+   * change arrives, or with an empty batch when the request times out.
+   */
+  private final class AsyncPoll implements Runnable, AsyncListener {
+
+    private final AsyncContext context;
+
+    private final String manifest;
+
+    private final boolean eventStream;
+
+    private final AtomicBoolean done = new AtomicBoolean();
+
+    private volatile Batch batch;
+
+    AsyncPoll(AsyncContext context, String manifest, boolean eventStream) {
+      this.context = context;
+      this.manifest = manifest;
+      this.eventStream = eventStream;
+      context.addListener(this);
+    }
+
+    void park(Batch batch) {
+      this.batch = batch;
+      if (!listen(batch, manifest, this)) {
+        run();
+      }
+    }
+
+    // Called by the publishing thread, which must not write to the subscriber.
+    @Override
+    public void run() {
+      context.start(new Runnable() {
+        @Override
+        public void run() {
+          if (done.get()) {
+            return;
+          }
+
+          final Batch next = poll(batch.getToken(), manifest);
+          if (next.isEmpty()) {
+            park(next);
+          } else {
+            finish(next);
+          }
+        }
+      });
+    }
+
+    private void finish(Batch result) {
+      if (!done.compareAndSet(false, true)) {
+        return;
+      }
+
+      unlisten(this);
+      try {
+        write((HttpServletResponse) context.getResponse(), result, eventStream);
+      } catch (IOException e) {
+        LOGGER.debug("Change feed subscriber went away", e);
+      } finally {
+        context.complete();
+      }
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+      finish(poll(batch.getToken(), manifest));
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+      done.set(true);
+      unlisten(this);
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+      done.set(true);
+      unlisten(this);
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+    }
+  }
+}
@@ -0,0 +1,142 @@
+package com.joelws.componenttracker;
+/*
+Copyright 2016 Joel Whittaker-Smith
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import com.joelws.componenttracker.model.ComponentManifest;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces concurrent replacements of a manifest, last writer wins. The first submitter commits
+ * on behalf of everyone queued behind it; a submission overtaken by a later one before it was
+ * taken is never committed, as the later one would have replaced it anyway.
+ */
+final class ManifestCoalescer {
+
+  private final TrackedManifest trackedManifest;
+
+  private final long windowMillis;
+
+  private ComponentManifest pending;
+
+  // Submissions are numbered, committed is the newest one already covered by a commit and
+  // failed the newest one covered by a commit that failed.
+  private long submitted;
+
+  private long committed;
+
+  private long failed;
+
+  private Throwable failure;
+
+  private boolean draining;
+
+  /**
+   * @param windowMillis how long the committing thread waits for more submissions before taking
+   * the pending one, 0 to only coalesce submissions made while a commit is in progress
+   */
+  ManifestCoalescer(TrackedManifest trackedManifest, long windowMillis) {
+    this.trackedManifest = trackedManifest;
+    this.windowMillis = windowMillis;
+  }
+
+  /**
+   * Returns once the manifest, or one submitted after it, has been committed.
+   *
+   * @throws IOException if the commit covering the manifest failed
+   */
+  void submit(ComponentManifest componentManifest) throws InterruptedException, IOException {
+    final long ticket;
+
+    synchronized (this) {
+      ticket = ++submitted;
+      pending = componentManifest;
+
+      while (draining && committed < ticket && failed < ticket) {
+        wait();
+      }
+      if (committed >= ticket) {
+        ComponentTrackerMetrics.getInstance().increment("manifest.coalesced");
+        return;
+      }
+      checkFailed(ticket);
+      draining = true;
+    }
+
+    try {
+      if (windowMillis > 0) {
+        TimeUnit.MILLISECONDS.sleep(windowMillis);
+      }
+      drain();
+    } finally {
+      synchronized (this) {
+        draining = false;
+        notifyAll();
+      }
+    }
+
+    synchronized (this) {
+      if (committed < ticket) {
+        checkFailed(ticket);
+      }
+    }
+  }
+
+  private void checkFailed(long ticket) throws IOException {
+    if (failed >= ticket) {
+      throw new IOException("Failed to store manifest " + trackedManifest.getName(), failure);
+    }
+  }
+
+  // Commits until nothing is pending or a commit fails.
+  private void drain() {
+    while (true) {
+      final ComponentManifest next;
+      final long ticket;
+
+      synchronized (this) {
+        next = pending;
+        ticket = submitted;
+        pending = null;
+      }
+      if (next == null) {
+        return;
+      }
+
+      try {
+        if (!trackedManifest.setLatestManifest(next)) {
+          throw new IOException("Failed to store manifest " + trackedManifest.getName());
+        }
+      } catch (Throwable e) {
+        // Submitters covered by this commit get the failure instead of a false success.
+        synchronized (this) {
+          failed = ticket;
+          failure = e;
+          notifyAll();
+        }
+        if (e instanceof Error) {
+          throw (Error) e;
+        }
+        return;
+      }
+
+      synchronized (this) {
+        committed = ticket;
+        notifyAll();
+      }
+    }
+  }
+}
@@ -0,0 +1,861 @@
+package com.joelws.componenttracker;
+/*
+Copyright 2016 Joel Whittaker-Smith
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.joelws.componenttracker.model.Component;
+import com.joelws.componenttracker.model.ComponentManifest;
+import com.joelws.componenttracker.model.ManifestDelta;
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only log of every manifest version, split into segments that each start with a full
+ * snapshot. Only the newest segment is read at startup; older versions are replayed from disk on
+ * demand. Closed segments keep an index of the versions they hold next to them, and are compacted
+ * in the background to drop entries superseded by a later entry of the same version.
+ */
+public class ManifestHistory {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ManifestHistory.class);
+
+  private static final String PROPERTY_PREFIX = ManifestHistory.class.getName();
+
+  private static final int SEGMENT_SIZE = Integer
+      .getInteger(PROPERTY_PREFIX + ".segmentSize", 1000);
+
+  // Every version is kept unless a retention limit is set.
+  private static final int MAX_SEGMENTS = Integer.getInteger(PROPERTY_PREFIX + ".maxSegments", 0);
+
+  private static final int INDEXED_ENTRIES = Integer
+      .getInteger(PROPERTY_PREFIX + ".indexedEntries", 10000);
+
+  private static final String SEGMENT_PREFIX = "segment-";
+
+  private static final String SEGMENT_SUFFIX = ".log";
+
+  private static final String INDEX_SUFFIX = ".index";
+
+  private static final String COMPACT_SUFFIX = ".compact";
+
+  private final File directory;
+
+  private final int indexedEntries;
+
+  private final int segmentSize;
+
+  // First sequence number of each segment.
+  private final TreeMap<Long, File> segments = new TreeMap<>();
+
+  // Indexes of the closed segments, read from disk as point-in-time lookups need them.
+  private final Map<Long, SegmentIndex> segmentIndexes = new HashMap<>();
+
+  // Index of the newest segment, written next to it when it is closed.
+  private SegmentIndex newest = new SegmentIndex();
+
+  // Built on the first point-in-time lookup so startup only reads the newest segment.
+  private Map<String, Long> versions;
+
+  // Built on the first component lookup from the newest segments, then kept up by append.
+  private ManifestIndex index;
+
+  private ComponentManifest head;
+
+  private long nextSequence;
+
+  // Bytes of the newest segment already read or written by this instance.
+  private long newestLength;
+
+  private Writer writer;
+
+  public ManifestHistory(File directory) throws IOException {
+    this(directory, INDEXED_ENTRIES);
+  }
+
+  ManifestHistory(File directory, int indexedEntries) throws IOException {
+    this(directory, indexedEntries, SEGMENT_SIZE);
+  }
+
+  ManifestHistory(File directory, int indexedEntries, int segmentSize) throws IOException {
+    this.directory = directory;
+    this.indexedEntries = indexedEntries;
+    this.segmentSize = segmentSize;
+    open();
+  }
+
+  /**
+   * Reads the entries another controller appended since this instance last read or wrote, from
+   * where it left off in the newest segment and from any segment rolled since.
+   */
+  public synchronized void catchUp() throws IOException {
+    close();
+
+    final Long newestKey = segments.isEmpty() ? null : segments.lastKey();
+    final TreeMap<Long, File> found = new TreeMap<>();
+    list(found);
+
+    if (newestKey != null && found.containsKey(newestKey)) {
+      recover(segments.get(newestKey), newestLength);
+    }
+    for (Map.Entry<Long, File> segment
+        : (newestKey != null ? found.tailMap(newestKey, false) : found).entrySet()) {
+      // The other controller wrote the index of the segment it closed, which now holds as well.
+      if (!segments.isEmpty()) {
+        segmentIndexes.put(segments.lastKey(), newest);
+      }
+      segments.put(segment.getKey(), segment.getValue());
+      newest = new SegmentIndex();
+      close();
+      recover(segment.getValue(), 0);
+    }
+  }
+
+  private void open() throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create " + directory);
+    }
+
+    list(segments);
+
+    if (!segments.isEmpty()) {
+      recover(segments.lastEntry().getValue(), 0);
+    }
+  }
+
+  private void list(Map<Long, File> result) {
+    final File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        final String fileName = file.getName();
+        if (fileName.startsWith(SEGMENT_PREFIX) && fileName.endsWith(SEGMENT_SUFFIX)) {
+          try {
+            result.put(Long.parseLong(fileName.substring(
+                SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length())), file);
+          } catch (NumberFormatException e) {
+            LOGGER.warn("Ignoring " + file + ", it is not a history segment");
+          }
+        } else if (fileName.endsWith(COMPACT_SUFFIX) && !file.delete()) {
+          LOGGER.warn("Failed to delete unfinished compaction output " + file);
+        }
+      }
+    }
+  }
+
+  public synchronized ComponentManifest getHead() {
+    return head != null ? head.copy() : null;
+  }
+
+  public synchronized boolean isEmpty() {
+    return head == null;
+  }
+
+  public synchronized long getSegmentCount() {
+    return segments.size();
+  }
+
+  /**
+   * Records the manifest. Callers append in commit order, the storage holds its commit lock while
+   * appending.
+   */
+  public synchronized void append(ComponentManifest componentManifest) throws IOException {
+    final Entry entry;
+
+    if (writer == null || newest.entries >= segmentSize || head == null
+        || !Entry.equal(head.getName(), componentManifest.getName())) {
+      entry = Entry.snapshot(nextSequence, componentManifest);
+      roll();
+    } else {
+      entry = Entry.delta(nextSequence, head, componentManifest);
+      if (entry == null) {
+        return;
+      }
+    }
+
+    write(entry, writer);
+    writer.flush();
+    newestLength = segments.lastEntry().getValue().length();
+
+    newest.add(entry);
+    nextSequence++;
+    if (versions != null) {
+      versions.put(entry.version, entry.sequence);
+    }
+    if (index != null) {
+      entry.indexInto(index);
+    }
+
+    head = componentManifest.copy();
+  }
+
+  /**
+   * Rebuilds the manifest as it was at the given version, or returns null if it was never seen.
+   */
+  public synchronized ComponentManifest getManifest(String version) throws IOException {
+    final Long sequence = versions().get(version);
+
+    if (sequence == null) {
+      return null;
+    }
+
+    final Map.Entry<Long, File> segment = segments.floorEntry(sequence);
+    return segment != null ? replay(segment.getValue(), sequence) : null;
+  }
+
+  /**
+   * Versions of the manifest that held the component at the given version, oldest first. Recent
+   * entries are answered from the in-memory index, older ones by scanning the segments on disk.
+   */
+  public synchronized List<String> findVersions(String component, String version)
+      throws IOException {
+    final ManifestIndex index = index();
+    final long indexedFrom = index.getFirstSequence();
+    final List<String> result = new ArrayList<>();
+
+    if (!segments.isEmpty() && (indexedFrom < 0 || segments.firstKey() < indexedFrom)) {
+      scan(component, version, indexedFrom < 0 ? Long.MAX_VALUE : indexedFrom, result);
+    }
+    result.addAll(index.find(component, version));
+
+    // A version is listed once even if it was recorded again, e.g. after a restore.
+    return new ArrayList<>(new LinkedHashSet<>(result));
+  }
+
+  /**
+   * Rewrites the closed segments without the entries superseded by a later entry of the same
+   * version, which point-in-time lookups can no longer reach, and packs what is left into as few
+   * segments as fit. Rewritten segments again start with a snapshot followed by deltas, and keep
+   * the sequence numbers of their entries. Returns the number of entries dropped.
+   */
+  public synchronized int compact() throws IOException {
+    if (segments.size() < 2) {
+      return 0;
+    }
+
+    final Map<String, Long> latest = versions();
+    final TreeMap<Long, File> closed = new TreeMap<>(segments.headMap(segments.lastKey()));
+
+    if (!isCompactable(closed, latest)) {
+      return 0;
+    }
+
+    final TreeMap<Long, File> outputs = new TreeMap<>();
+    final Map<Long, SegmentIndex> outputIndexes = new HashMap<>();
+    SegmentIndex outputIndex = null;
+    ComponentManifest previous = null;
+    long written = -1;
+    int dropped = 0;
+    Writer out = null;
+
+    try {
+      for (File segment : closed.values()) {
+        ComponentManifest state = null;
+
+        for (Entry entry : read(segment, Long.MAX_VALUE)) {
+          state = entry.applyTo(state);
+
+          // Entries left in two segments by an interrupted compaction are written once.
+          if (entry.sequence <= written
+              || !Long.valueOf(entry.sequence).equals(latest.get(entry.version))) {
+            dropped++;
+            continue;
+          }
+
+          if (out == null || outputIndex.entries >= segmentSize
+              || !Entry.equal(previous.getName(), state.getName())) {
+            if (out != null) {
+              out.close();
+            }
+            final File output = new File(directory, segmentName(entry.sequence) + COMPACT_SUFFIX);
+            out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(output), StandardCharsets.UTF_8));
+            outputs.put(entry.sequence, output);
+            outputIndex = new SegmentIndex();
+            outputIndexes.put(entry.sequence, outputIndex);
+            previous = null;
+          }
+
+          final Entry compacted = previous == null
+              ? Entry.snapshot(entry.sequence, state)
+              : Entry.delta(entry.sequence, previous, state);
+          compacted.timestamp = entry.timestamp;
+          write(compacted, out);
+          outputIndex.add(compacted);
+
+          previous = state.copy();
+          written = entry.sequence;
+        }
+      }
+    } finally {
+      if (out != null) {
+        out.close();
+      }
+    }
+
+    // Rewritten segments replace the old ones before the rest are deleted, so a crash part way
+    // through leaves entries in two segments rather than in none.
+    for (File segment : closed.values()) {
+      deleteIndex(segment);
+    }
+    for (Map.Entry<Long, File> output : outputs.entrySet()) {
+      final File segment = new File(directory, segmentName(output.getKey()));
+      Files.move(output.getValue().toPath(), segment.toPath(),
+          StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      writeIndex(segment, outputIndexes.get(output.getKey()));
+    }
+    for (Map.Entry<Long, File> segment : closed.entrySet()) {
+      segments.remove(segment.getKey());
+      segmentIndexes.remove(segment.getKey());
+      if (!outputs.containsKey(segment.getKey()) && !segment.getValue().delete()) {
+        LOGGER.warn("Failed to delete compacted segment " + segment.getValue());
+      }
+    }
+    for (Long key : outputs.keySet()) {
+      segments.put(key, new File(directory, segmentName(key)));
+    }
+    segmentIndexes.putAll(outputIndexes);
+
+    // Superseded entries may still be in the component index.
+    index = null;
+
+    LOGGER.debug("Compacted " + closed.size() + " history segments into " + outputs.size()
+        + ", dropping " + dropped + " superseded entries");
+    return dropped;
+  }
+
+  // Whether a closed segment holds superseded entries, or two neighbours would fit in one.
+  private boolean isCompactable(Map<Long, File> closed, Map<String, Long> latest)
+      throws IOException {
+    SegmentIndex before = null;
+    int retainedBefore = 0;
+
+    for (Map.Entry<Long, File> segment : closed.entrySet()) {
+      final SegmentIndex segmentIndex = segmentIndex(segment.getKey(), segment.getValue());
+      int retained = 0;
+      for (Map.Entry<String, Long> version : segmentIndex.versions.entrySet()) {
+        if (version.getValue().equals(latest.get(version.getKey()))) {
+          retained++;
+        }
+      }
+
+      if (retained < segmentIndex.entries || segmentIndex.entries == 0) {
+        return true;
+      }
+      if (before != null && retainedBefore + retained <= segmentSize
+          && Entry.equal(before.name, segmentIndex.name)) {
+        return true;
+      }
+      before = segmentIndex;
+      retainedBefore = retained;
+    }
+    return false;
+  }
+
+  /**
+   * Deletes the oldest segments beyond the retention limit, after which the versions they held
+   * can no longer be looked up. Does nothing unless a limit is set; the newest segment is never
+   * removed.
+   */
+  public synchronized void expire() {
+    expire(MAX_SEGMENTS);
+  }
+
+  synchronized void expire(int maxSegments) {
+    if (maxSegments <= 0) {
+      return;
+    }
+
+    while (segments.size() > Math.max(1, maxSegments)) {
+      final Map.Entry<Long, File> oldest = segments.pollFirstEntry();
+      LOGGER.debug("Removing history segment " + oldest.getValue().getName());
+
+      if (!oldest.getValue().delete()) {
+        LOGGER.warn("Failed to delete " + oldest.getValue());
+      }
+      segmentIndexes.remove(oldest.getKey());
+      deleteIndex(oldest.getValue());
+
+      if (versions != null) {
+        final long retainedFrom = segments.firstKey();
+        final Iterator<Long> sequences = versions.values().iterator();
+        while (sequences.hasNext()) {
+          if (sequences.next() < retainedFrom) {
+            sequences.remove();
+          }
+        }
+      }
+    }
+  }
+
+  public synchronized void close() throws IOException {
+    if (writer != null) {
+      writer.close();
+      writer = null;
+    }
+  }
+
+  private void roll() throws IOException {
+    close();
+
+    // The segment being closed keeps its index on disk, unless it is reopened empty.
+    if (!segments.isEmpty() && segments.lastKey() != nextSequence) {
+      writeIndex(segments.lastEntry().getValue(), newest);
+      segmentIndexes.put(segments.lastKey(), newest);
+    }
+
+    final File segment = new File(directory, segmentName(nextSequence));
+    writer = new BufferedWriter(new OutputStreamWriter(
+        new FileOutputStream(segment, true), StandardCharsets.UTF_8));
+    segments.put(nextSequence, segment);
+    newest = new SegmentIndex();
+    newestLength = segment.length();
+  }
+
+  private static String segmentName(long sequence) {
+    return String.format("%s%016d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX);
+  }
+
+  private static void write(Entry entry, Writer writer) throws IOException {
+    ManifestJson.GSON.toJson(entry, Entry.class, writer);
+    writer.write('\n');
+  }
+
+  /**
+   * Reads the newest segment from the given offset and cuts off a line torn by a crash, so the
+   * next entry starts on a line of its own instead of being glued to the partial one.
+   */
+  private void recover(File segment, long from) throws IOException {
+    final byte[] bytes;
+    try (RandomAccessFile file = new RandomAccessFile(segment, "r")) {
+      bytes = new byte[(int) Math.max(0, file.length() - from)];
+      file.seek(from);
+      file.readFully(bytes);
+    }
+
+    final List<Entry> entries = new ArrayList<>();
+    int valid = 0;
+
+    for (int start = 0, end; (end = indexOf(bytes, '\n', start)) >= 0; start = end + 1) {
+      if (end > start) {
+        try {
+          entries.add(ManifestJson.GSON.fromJson(
+              new String(bytes, start, end - start, StandardCharsets.UTF_8), Entry.class));
+        } catch (JsonParseException e) {
+          break;
+        }
+      }
+      valid = end + 1;
+    }
+
+    if (valid < bytes.length) {
+      LOGGER.warn("Truncating torn history entry at byte " + (from + valid) + " of "
+          + segment.getName());
+      try (FileChannel channel = FileChannel.open(segment.toPath(), StandardOpenOption.WRITE)) {
+        channel.truncate(from + valid);
+      }
+    }
+
+    for (Entry entry : entries) {
+      head = entry.applyTo(head);
+      nextSequence = entry.sequence + 1;
+      newest.add(entry);
+      if (versions != null) {
+        versions.put(entry.version, entry.sequence);
+      }
+      if (index != null) {
+        entry.indexInto(index);
+      }
+    }
+    newestLength = from + valid;
+
+    writer = new BufferedWriter(new OutputStreamWriter(
+        new FileOutputStream(segment, true), StandardCharsets.UTF_8));
+  }
+
+  private static int indexOf(byte[] bytes, char c, int from) {
+    for (int i = from; i < bytes.length; i++) {
+      if (bytes[i] == c) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private ManifestIndex index() throws IOException {
+    if (index == null) {
+      final ManifestIndex built = new ManifestIndex(indexedEntries);
+
+      if (!segments.isEmpty()) {
+        // Segments start with a snapshot, so indexing starts at the one that fills the window.
+        final Long first = segments.floorKey(Math.max(0, nextSequence - indexedEntries));
+        for (File segment
+            : segments.tailMap(first != null ? first : segments.firstKey()).values()) {
+          for (Entry entry : read(segment, Long.MAX_VALUE)) {
+            entry.indexInto(built);
+          }
+        }
+      }
+      index = built;
+    }
+    return index;
+  }
+
+  private void scan(String component, String version, long untilSequence, List<String> result)
+      throws IOException {
+    for (File segment : segments.headMap(untilSequence).values()) {
+      String current = null;
+
+      for (Entry entry : read(segment, untilSequence - 1)) {
+        current = entry.versionOf(component, current);
+        if (version.equals(current)) {
+          result.add(entry.version);
+        }
+      }
+    }
+  }
+
+  private ComponentManifest replay(File segment, long untilSequence) throws IOException {
+    ComponentManifest state = null;
+
+    for (Entry entry : read(segment, untilSequence)) {
+      state = entry.applyTo(state);
+    }
+    return state;
+  }
+
+  private static List<Entry> read(File segment, long untilSequence) throws IOException {
+    final List<Entry> entries = new ArrayList<>();
+
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+        new FileInputStream(segment), StandardCharsets.UTF_8))) {
+
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.isEmpty()) {
+          continue;
+        }
+
+        final Entry entry;
+        try {
+          entry = ManifestJson.GSON.fromJson(line, Entry.class);
+        } catch (JsonParseException e) {
+          LOGGER.warn("Ignoring truncated history entry in " + segment.getName());
+          break;
+        }
+
+        if (entry.sequence > untilSequence) {
+          break;
+        }
+        entries.add(entry);
+      }
+    }
+    return entries;
+  }
+
+  private Map<String, Long> versions() throws IOException {
+    if (versions == null) {
+      final Map<String, Long> result = new HashMap<>();
+
+      if (!segments.isEmpty()) {
+        for (Map.Entry<Long, File> segment : segments.headMap(segments.lastKey()).entrySet()) {
+          result.putAll(segmentIndex(segment.getKey(), segment.getValue()).versions);
+        }
+      }
+      result.putAll(newest.versions);
+      versions = result;
+    }
+    return versions;
+  }
+
+  /**
+   * Index of a closed segment, read from next to it when it is at least as new as the segment
+   * and rebuilt from the entry headers otherwise.
+   */
+  private SegmentIndex segmentIndex(long key, File segment) throws IOException {
+    SegmentIndex segmentIndex = segmentIndexes.get(key);
+
+    if (segmentIndex == null) {
+      final File file = indexFile(segment);
+      if (file.lastModified() >= segment.lastModified()) {
+        try (Reader reader = new InputStreamReader(
+            new FileInputStream(file), StandardCharsets.UTF_8)) {
+          segmentIndex = ManifestJson.GSON.fromJson(reader, SegmentIndex.class);
+        } catch (JsonParseException e) {
+          LOGGER.warn("Rebuilding unreadable history index " + file.getName());
+        }
+      }
+
+      if (segmentIndex == null) {
+        segmentIndex = new SegmentIndex();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+            new FileInputStream(segment), StandardCharsets.UTF_8))) {
+
+          String line;
+          while ((line = reader.readLine()) != null) {
+            if (!line.isEmpty()) {
+              readHeader(line, segmentIndex);
+            }
+          }
+        }
+        writeIndex(segment, segmentIndex);
+      }
+      segmentIndexes.put(key, segmentIndex);
+    }
+    return segmentIndex;
+  }
+
+  private static File indexFile(File segment) {
+    return new File(segment.getParentFile(), segment.getName() + INDEX_SUFFIX);
+  }
+
+  // The index only saves rescanning the segment, so failing to write it is not an error.
+  private static void writeIndex(File segment, SegmentIndex segmentIndex) {
+    final File file = indexFile(segment);
+    final File temp = new File(file.getPath() + ".tmp");
+
+    try {
+      try (Writer writer = new OutputStreamWriter(
+          new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+        ManifestJson.GSON.toJson(segmentIndex, SegmentIndex.class, writer);
+      }
+      Files.move(temp.toPath(), file.toPath(),
+          StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      LOGGER.warn("Failed to write history index " + file.getName(), e);
+    }
+  }
+
+  private static void deleteIndex(File segment) {
+    final File file = indexFile(segment);
+    if (file.exists() && !file.delete()) {
+      LOGGER.warn("Failed to delete " + file);
+    }
+  }
+
+  // Reads only the header fields of an entry, skipping any snapshot payload.
+  private static void readHeader(String line, SegmentIndex segmentIndex) throws IOException {
+    final Entry entry = new Entry();
+
+    try (JsonReader reader = new JsonReader(new StringReader(line))) {
+      reader.beginObject();
+      while (reader.hasNext()) {
+        final String field = reader.nextName();
+        if ("sequence".equals(field)) {
+          entry.sequence = reader.nextLong();
+        } else if ("name".equals(field)) {
+          entry.name = reader.nextString();
+        } else if ("version".equals(field)) {
+          entry.version = reader.nextString();
+        } else {
+          reader.skipValue();
+        }
+      }
+    }
+
+    if (entry.version != null) {
+      segmentIndex.add(entry);
+    }
+  }
+
+  @Extension
+  public static class Compaction extends AsyncPeriodicWork {
+
+    public Compaction() {
+      super("Component tracker history compaction");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+      return HOUR;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) {
+      for (TrackedManifest trackedManifest
+          : ComponentTrackerEndpoint.getInstance().getTrackedManifests()) {
+        // Manifests not used since startup have written no new segments, and a history shared
+        // with another controller may be appended to while it is rewritten.
+        if (!trackedManifest.isLoaded() || trackedManifest.isShared()) {
+          continue;
+        }
+        final ManifestHistory history = trackedManifest.getHistory();
+        if (history == null) {
+          continue;
+        }
+        try {
+          history.compact();
+          history.expire();
+        } catch (IOException e) {
+          LOGGER.warn("Failed to compact the history of " + trackedManifest.getName(), e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Versions recorded in a segment, with the sequence of the last entry of each, so point-in-time
+   * lookups and compaction need not read the segment itself.
+   */
+  static final class SegmentIndex {
+
+    private int entries;
+
+    private String name;
+
+    private Map<String, Long> versions = new HashMap<>();
+
+    void add(Entry entry) {
+      entries++;
+      name = entry.name;
+      versions.put(entry.version, entry.sequence);
+    }
+  }
+
+  static final class Entry {
+
+    private long sequence;
+
+    private long timestamp;
+
+    private String name;
+
+    private String version;
+
+    private List<Component> snapshot;
+
+    private Map<String, String> changed;
+
+    private List<String> removed;
+
+    private Entry() {
+    }
+
+    static Entry snapshot(long sequence, ComponentManifest componentManifest) {
+      final Entry entry = new Entry(sequence, componentManifest);
+      entry.snapshot = componentManifest.getArtifacts() != null
+          ? new ArrayList<>(componentManifest.getArtifacts())
+          : new ArrayList<Component>();
+      return entry;
+    }
+
+    static Entry delta(long sequence, ComponentManifest previous, ComponentManifest next) {
+      final ManifestDelta delta = ManifestDelta.between(previous, next);
+
+      if (delta.isEmpty() && equal(previous.getVersion(), next.getVersion())) {
+        return null;
+      }
+
+      final Entry entry = new Entry(sequence, next);
+      entry.changed = new LinkedHashMap<>();
+      for (Component component : delta.getArtifacts()) {
+        entry.changed.put(component.getName(), component.getVersion());
+      }
+      entry.removed = delta.getRemoved();
+      return entry;
+    }
+
+    private Entry(long sequence, ComponentManifest componentManifest) {
+      this.sequence = sequence;
+      this.timestamp = System.currentTimeMillis();
+      this.name = componentManifest.getName();
+      this.version = componentManifest.getVersion();
+    }
+
+    ComponentManifest applyTo(ComponentManifest state) {
+      if (snapshot != null) {
+        final List<Component> artifacts = new ArrayList<>(snapshot.size());
+        for (Component component : snapshot) {
+          artifacts.add(component.copy());
+        }
+        return new ComponentManifest(name, version, artifacts);
+      }
+
+      state.setVersion(version);
+      if (changed != null) {
+        for (Map.Entry<String, String> change : changed.entrySet()) {
+          if (!state.setComponentVersion(change.getKey(), change.getValue())) {
+            state.putComponent(new Component(change.getKey(), change.getValue()));
+          }
+        }
+      }
+      if (removed != null) {
+        for (String component : removed) {
+          state.removeComponent(component);
+        }
+      }
+      return state;
+    }
+
+    void indexInto(ManifestIndex index) {
+      if (snapshot != null) {
+        index.snapshot(sequence, version, snapshot);
+      } else {
+        index.delta(sequence, version, changed, removed);
+      }
+    }
+
+    // Version of the component after this entry, given its version before it.
+    String versionOf(String component, String previous) {
+      if (snapshot != null) {
+        for (Component artifact : snapshot) {
+          if (component.equals(artifact.getName())) {
+            return artifact.getVersion();
+          }
+        }
+        return null;
+      }
+      if (changed != null && changed.containsKey(component)) {
+        return changed.get(component);
+      }
+      if (removed != null && removed.contains(component)) {
+        return null;
+      }
+      return previous;
+    }
+
+    static boolean equal(String a, String b) {
+      return a != null ? a.equals(b) : b == null;
+    }
+  }
+}
@@ -0,0 +1,202 @@
+package com.joelws.componenttracker;
+/*
+Copyright 2016 Joel Whittaker-Smith
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import com.joelws.componenttracker.model.Component;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Inverted index over the most recent history entries, from component and component version to
+ * the range of entries that held it. Only the newest entries are kept, entries that fall out of
+ * the window are answered from the history segments on disk instead.
+ */
+final class ManifestIndex {
+
+  private final int capacity;
+
+  // Manifest version of each indexed entry, by sequence number.
+  private final TreeMap<Long, String> versions = new TreeMap<>();
+
+  private final Map<String, Map<String, List<Range>>> ranges = new HashMap<>();
+
+  // The range each component is currently in.
+  private final Map<String, Range> open = new HashMap<>();
+
+  private int evicted;
+
+  ManifestIndex(int capacity) {
+    this.capacity = Math.max(1, capacity);
+  }
+
+  /**
+   * Sequence number of the oldest indexed entry, or -1 while nothing is indexed.
+   */
+  long getFirstSequence() {
+    return versions.isEmpty() ? -1 : versions.firstKey();
+  }
+
+  int size() {
+    return versions.size();
+  }
+
+  /**
+   * Indexes an entry holding every component of the manifest.
+   */
+  void snapshot(long sequence, String manifestVersion, List<Component> components) {
+    final Set<String> names = new HashSet<>();
+
+    for (Component component : components) {
+      names.add(component.getName());
+      change(sequence, component.getName(), component.getVersion());
+    }
+
+    final Iterator<Map.Entry<String, Range>> current = open.entrySet().iterator();
+    while (current.hasNext()) {
+      final Map.Entry<String, Range> range = current.next();
+      if (!names.contains(range.getKey())) {
+        range.getValue().until = sequence;
+        current.remove();
+      }
+    }
+    add(sequence, manifestVersion);
+  }
+
+  /**
+   * Indexes an entry holding only the components changed since the previous one.
+   */
+  void delta(long sequence, String manifestVersion, Map<String, String> changed,
+      List<String> removed) {
+    if (changed != null) {
+      for (Map.Entry<String, String> component : changed.entrySet()) {
+        change(sequence, component.getKey(), component.getValue());
+      }
+    }
+    if (removed != null) {
+      for (String component : removed) {
+        final Range range = open.remove(component);
+        if (range != null) {
+          range.until = sequence;
+        }
+      }
+    }
+    add(sequence, manifestVersion);
+  }
+
+  /**
+   * Versions of the manifest that held the component at the given version, oldest first,
+   * looking only at indexed entries.
+   */
+  List<String> find(String component, String version) {
+    final List<String> result = new ArrayList<>();
+    final Map<String, List<Range>> byVersion = ranges.get(component);
+    final List<Range> matches = byVersion != null ? byVersion.get(version) : null;
+
+    if (matches != null) {
+      for (Range range : matches) {
+        result.addAll(versions.subMap(range.from, range.until).values());
+      }
+    }
+    return result;
+  }
+
+  private void change(long sequence, String component, String version) {
+    final Range current = open.get(component);
+
+    if (current != null) {
+      if (ManifestHistory.Entry.equal(current.version, version)) {
+        return;
+      }
+      current.until = sequence;
+    }
+
+    final Range range = new Range(version, sequence);
+    open.put(component, range);
+
+    Map<String, List<Range>> byVersion = ranges.get(component);
+    if (byVersion == null) {
+      byVersion = new HashMap<>();
+      ranges.put(component, byVersion);
+    }
+    List<Range> list = byVersion.get(version);
+    if (list == null) {
+      list = new ArrayList<>(1);
+      byVersion.put(version, list);
+    }
+    list.add(range);
+  }
+
+  private void add(long sequence, String manifestVersion) {
+    versions.put(sequence, manifestVersion);
+
+    while (versions.size() > capacity) {
+      versions.pollFirstEntry();
+      evicted++;
+    }
+
+    // Dropping ranges walks the whole index, so it is done once per quarter of the window.
+    if (evicted > capacity / 4) {
+      prune(versions.firstKey());
+      evicted = 0;
+    }
+  }
+
+  private void prune(long firstSequence) {
+    final Iterator<Map<String, List<Range>>> components = ranges.values().iterator();
+
+    while (components.hasNext()) {
+      final Map<String, List<Range>> byVersion = components.next();
+      final Iterator<List<Range>> lists = byVersion.values().iterator();
+
+      while (lists.hasNext()) {
+        final List<Range> list = lists.next();
+        final Iterator<Range> iterator = list.iterator();
+        while (iterator.hasNext()) {
+          if (iterator.next().until <= firstSequence) {
+            iterator.remove();
+          }
+        }
+        if (list.isEmpty()) {
+          lists.remove();
+        }
+      }
+      if (byVersion.isEmpty()) {
+        components.remove();
+      }
+    }
+  }
+
+  // Entries from, inclusive, until, exclusive, held the component at the version.
+  private static final class Range {
+
+    private final String version;
+
+    private final long from;
+
+    private long until = Long.MAX_VALUE;
+
+    Range(String version, long from) {
+      this.version = version;
+      this.from = from;
+    }
+  }
+}
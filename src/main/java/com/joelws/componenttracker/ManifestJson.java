@@ -0,0 +1,285 @@
+package com.joelws.componenttracker;
+/*
+Copyright 2016 Joel Whittaker-Smith
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.joelws.componenttracker.model.Component;
+import com.joelws.componenttracker.model.ComponentManifest;
+import java.io.EOFException;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Shared Gson configuration for manifests. Gson instances are thread-safe and cache their type
+ * adapters, so one instance is reused for every request.
+ */
+public final class ManifestJson {
+
+  static final Gson GSON = new GsonBuilder()
+      .disableHtmlEscaping()
+      .registerTypeAdapterFactory(new UniqueComponents())
+      .create();
+
+  private ManifestJson() {
+  }
+
+  /**
+   * Streams the manifest to the writer without building the JSON as a string. The writer is
+   * flushed but not closed.
+   */
+  public static void write(ComponentManifest componentManifest, Writer writer) throws IOException {
+    final JsonWriter jsonWriter = new JsonWriter(writer);
+    GSON.toJson(componentManifest,
+        componentManifest != null ? componentManifest.getClass() : ComponentManifest.class,
+        jsonWriter);
+    jsonWriter.flush();
+  }
+
+  /**
+   * Parses a manifest in a single pass, failing as soon as the input exceeds the character or
+   * component limits or stops looking like a manifest.
+   */
+  public static ComponentManifest read(Reader reader, long maxChars, int maxComponents)
+      throws IOException {
+    final JsonReader jsonReader = new JsonReader(new BoundedReader(reader, maxChars));
+
+    try {
+      String name = null;
+      String version = null;
+      List<Component> artifacts = new ArrayList<>();
+
+      jsonReader.beginObject();
+      while (jsonReader.hasNext()) {
+        switch (jsonReader.nextName()) {
+          case "name":
+            name = jsonReader.nextString();
+            break;
+          case "version":
+            version = jsonReader.nextString();
+            break;
+          case "artifacts":
+            artifacts = readArtifacts(jsonReader, maxComponents);
+            break;
+          default:
+            jsonReader.skipValue();
+        }
+      }
+      jsonReader.endObject();
+
+      if (jsonReader.peek() != JsonToken.END_DOCUMENT) {
+        throw badRequest("Unexpected content after manifest");
+      }
+
+      return new ComponentManifest(
+          require(name, "Manifest name"),
+          require(version, "Manifest version"),
+          artifacts);
+
+    } catch (ManifestRequestException e) {
+      throw e;
+    } catch (EOFException e) {
+      throw badRequest("Manifest is empty or truncated");
+    } catch (IOException | IllegalStateException | NumberFormatException e) {
+      throw badRequest("Malformed manifest: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Parses a batch of component versions sent as {@code {"artifacts": [{"name", "version"}]}}.
+   */
+  public static Map<String, String> readComponentVersions(Reader reader, long maxChars,
+      int maxComponents) throws IOException {
+    final JsonReader jsonReader = new JsonReader(new BoundedReader(reader, maxChars));
+
+    try {
+      List<Component> artifacts = null;
+
+      jsonReader.beginObject();
+      while (jsonReader.hasNext()) {
+        if ("artifacts".equals(jsonReader.nextName())) {
+          artifacts = readArtifacts(jsonReader, maxComponents);
+        } else {
+          jsonReader.skipValue();
+        }
+      }
+      jsonReader.endObject();
+
+      if (jsonReader.peek() != JsonToken.END_DOCUMENT) {
+        throw badRequest("Unexpected content after components");
+      }
+
+      if (artifacts == null || artifacts.isEmpty()) {
+        throw badRequest("No components to update");
+      }
+
+      final Map<String, String> versions = new LinkedHashMap<>();
+      for (Component artifact : artifacts) {
+        versions.put(artifact.getName(),
+            require(artifact.getVersion(), "Version of " + artifact.getName()));
+      }
+      return versions;
+
+    } catch (ManifestRequestException e) {
+      throw e;
+    } catch (EOFException e) {
+      throw badRequest("Request is empty or truncated");
+    } catch (IOException | IllegalStateException | NumberFormatException e) {
+      throw badRequest("Malformed request: " + e.getMessage());
+    }
+  }
+
+  private static List<Component> readArtifacts(JsonReader jsonReader, int maxComponents)
+      throws IOException {
+    final List<Component> artifacts = new ArrayList<>();
+    final Set<String> names = new HashSet<>();
+
+    jsonReader.beginArray();
+    while (jsonReader.hasNext()) {
+      if (artifacts.size() >= maxComponents) {
+        throw new ManifestRequestException(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
+            "Manifest has more than " + maxComponents + " components");
+      }
+
+      String name = null;
+      String version = null;
+
+      jsonReader.beginObject();
+      while (jsonReader.hasNext()) {
+        switch (jsonReader.nextName()) {
+          case "name":
+            name = jsonReader.nextString();
+            break;
+          case "version":
+            version = jsonReader.nextString();
+            break;
+          default:
+            jsonReader.skipValue();
+        }
+      }
+      jsonReader.endObject();
+
+      require(name, "Component name");
+      if (!names.add(name)) {
+        throw badRequest("Duplicate component " + name);
+      }
+      artifacts.add(new Component(name, require(version, "Version of " + name)));
+    }
+    jsonReader.endArray();
+
+    return artifacts;
+  }
+
+  private static String require(String value, String field) throws ManifestRequestException {
+    if (value == null || value.isEmpty()) {
+      throw badRequest(field + " is missing");
+    }
+    return value;
+  }
+
+  private static ManifestRequestException badRequest(String message) {
+    return new ManifestRequestException(HttpServletResponse.SC_BAD_REQUEST, message);
+  }
+
+  private static final class BoundedReader extends FilterReader {
+
+    private final long maxChars;
+
+    private long charsRead;
+
+    private BoundedReader(Reader reader, long maxChars) {
+      super(reader);
+      this.maxChars = maxChars;
+    }
+
+    @Override
+    public int read() throws IOException {
+      final int c = super.read();
+      if (c != -1) {
+        count(1);
+      }
+      return c;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+      final int read = super.read(cbuf, off, len);
+      if (read > 0) {
+        count(read);
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      final long skipped = super.skip(n);
+      count(skipped);
+      return skipped;
+    }
+
+    private void count(long chars) throws ManifestRequestException {
+      charsRead += chars;
+      if (charsRead > maxChars) {
+        throw new ManifestRequestException(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
+            "Request body is larger than " + maxChars + " characters");
+      }
+    }
+  }
+
+  // Gson fills in fields without calling the constructor, so manifests it reads are rebuilt
+  // through the constructor, which drops duplicate components.
+  private static final class UniqueComponents implements TypeAdapterFactory {
+
+    @Override
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+      if (type.getRawType() != ComponentManifest.class) {
+        return null;
+      }
+      final TypeAdapter<T> delegate = gson.getDelegateAdapter(this, type);
+
+      return new TypeAdapter<T>() {
+        @Override
+        public void write(JsonWriter out, T value) throws IOException {
+          delegate.write(out, value);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T read(JsonReader in) throws IOException {
+          final ComponentManifest read = (ComponentManifest) delegate.read(in);
+          return read != null
+              ? (T) new ComponentManifest(read.getName(), read.getVersion(), read.getArtifacts())
+              : null;
+        }
+      };
+    }
+  }
+}
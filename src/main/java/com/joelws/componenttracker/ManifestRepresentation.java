@@ -0,0 +1,187 @@
+package com.joelws.componenttracker;
+/*
+Copyright 2016 Joel Whittaker-Smith
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import com.joelws.componenttracker.model.ComponentManifest;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The serialized form of one manifest snapshot, kept until the snapshot is replaced so that
+ * unchanged polls are answered from memory.
+ */
+public final class ManifestRepresentation {
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final ComponentManifest manifest;
+
+  private final byte[] json;
+
+  private final String etag;
+
+  // Each content-coding is a different representation, so the gzip body has a tag of its own.
+  private final String gzipEtag;
+
+  private volatile byte[] gzip;
+
+  private ManifestRepresentation(ComponentManifest manifest, byte[] json, String digest) {
+    this.manifest = manifest;
+    this.json = json;
+    this.etag = '"' + digest + '"';
+    this.gzipEtag = '"' + digest + "-gzip\"";
+  }
+
+  public static ManifestRepresentation of(ComponentManifest componentManifest) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    try (Writer writer = new OutputStreamWriter(bytes, StandardCharsets.UTF_8)) {
+      ManifestJson.write(componentManifest, writer);
+    }
+
+    final byte[] json = bytes.toByteArray();
+    return new ManifestRepresentation(componentManifest, json, sha1(json));
+  }
+
+  public ComponentManifest getManifest() {
+    return manifest;
+  }
+
+  public byte[] getJson() {
+    return json;
+  }
+
+  public String getETag() {
+    return etag;
+  }
+
+  public String getETag(boolean gzip) {
+    return gzip ? gzipEtag : etag;
+  }
+
+  public byte[] getGzip() throws IOException {
+    byte[] result = gzip;
+
+    if (result == null) {
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream(json.length / 4 + 64);
+      try (GZIPOutputStream gzipStream = new GZIPOutputStream(bytes)) {
+        gzipStream.write(json);
+      }
+      gzip = result = bytes.toByteArray();
+    }
+    return result;
+  }
+
+  /**
+   * Whether an If-None-Match header names this representation, in either coding. Uses the weak
+   * comparison, so a weak tag matches too.
+   */
+  public boolean matches(String header) {
+    return matches(header, true);
+  }
+
+  /**
+   * Whether an If-Match header names this representation, in either coding. Uses the strong
+   * comparison, so a weak tag never matches.
+   */
+  public boolean matchesStrongly(String header) {
+    return matches(header, false);
+  }
+
+  private boolean matches(String header, boolean weak) {
+    if (header == null) {
+      return false;
+    }
+
+    for (String tag : header.split(",")) {
+      tag = tag.trim();
+      if (tag.startsWith("W/")) {
+        if (!weak) {
+          continue;
+        }
+        tag = tag.substring(2);
+      }
+      if ("*".equals(tag) || etag.equals(tag) || gzipEtag.equals(tag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Whether gzip is acceptable. An explicit gzip entry takes precedence over the wildcard.
+   */
+  public static boolean acceptsGzip(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+
+    Boolean wildcard = null;
+
+    for (String coding : acceptEncoding.split(",")) {
+      final String[] parameters = coding.split(";");
+      final String name = parameters[0].trim();
+
+      if ("gzip".equalsIgnoreCase(name)) {
+        return !isRefused(parameters);
+      }
+      if ("*".equals(name)) {
+        wildcard = !isRefused(parameters);
+      }
+    }
+    return wildcard != null && wildcard;
+  }
+
+  private static boolean isRefused(String[] parameters) {
+    for (int i = 1; i < parameters.length; i++) {
+      final String parameter = parameters[i].trim();
+      if (parameter.startsWith("q=") && isZero(parameter.substring(2))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isZero(String quality) {
+    try {
+      return Double.parseDouble(quality) == 0;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  static String sha1(byte[] bytes) {
+    final byte[] digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1").digest(bytes);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+
+    final char[] hex = new char[digest.length * 2];
+    for (int i = 0; i < digest.length; i++) {
+      hex[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+      hex[i * 2 + 1] = HEX[digest[i] & 0xf];
+    }
+    return new String(hex);
+  }
+}
@@ -0,0 +1,139 @@
+package com.joelws.componenttracker;
+/*
+Copyright 2016 Joel Whittaker-Smith
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import com.joelws.componenttracker.model.Component;
+import com.joelws.componenttracker.model.ComponentManifest;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compact binary form of a manifest, read without XStream reflection. Only a cache of the XML
+ * config file, anything unexpected in it is reported as an {@link IOException} so callers fall
+ * back to the XML. The header holds the size and modification time of the config file the
+ * snapshot was written with, so a snapshot left behind by an interrupted save is not mistaken for
+ * the current one without reading the config file itself.
+ */
+final class ManifestSnapshot {
+
+  private static final int MAGIC = 0x43544d53;
+
+  private static final byte FORMAT = 3;
+
+  private ManifestSnapshot() {
+  }
+
+  /**
+   * Reads the snapshot, provided it was written with the given config file as it is now.
+   */
+  static ComponentManifest read(File file, File source) throws IOException {
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+      if (in.readInt() != MAGIC || in.readByte() != FORMAT) {
+        throw new IOException(file + " is not a manifest snapshot");
+      }
+      final BasicFileAttributes attributes = attributes(source);
+      if (in.readLong() != attributes.size() || in.readLong() != modified(attributes)) {
+        throw new IOException(file + " was not written with the current " + source.getName());
+      }
+
+      final String name = readString(in);
+      final String version = readString(in);
+      final int count = in.readInt();
+      if (count < -1) {
+        throw new IOException(file + " is corrupt");
+      }
+      if (count == -1) {
+        return new ComponentManifest(name, version, null);
+      }
+
+      final List<Component> artifacts = new ArrayList<>(Math.min(count, 1024));
+      for (int i = 0; i < count; i++) {
+        artifacts.add(new Component(readString(in), readString(in)));
+      }
+      return new ComponentManifest(name, version, artifacts);
+    }
+  }
+
+  /**
+   * Writes to a temporary file that is then renamed over the snapshot.
+   *
+   * @param source the config file just written with the same manifest
+   * @return the number of bytes written
+   */
+  static long write(ComponentManifest componentManifest, File source, File file)
+      throws IOException {
+    final BasicFileAttributes attributes = attributes(source);
+    final File temporary = new File(file.getParentFile(), file.getName() + ".tmp");
+
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(temporary.toPath())))) {
+      out.writeInt(MAGIC);
+      out.writeByte(FORMAT);
+      out.writeLong(attributes.size());
+      out.writeLong(modified(attributes));
+      writeString(out, componentManifest.getName());
+      writeString(out, componentManifest.getVersion());
+
+      final List<Component> artifacts = componentManifest.getArtifacts();
+      if (artifacts == null) {
+        out.writeInt(-1);
+      } else {
+        out.writeInt(artifacts.size());
+        for (Component component : artifacts) {
+          writeString(out, component.getName());
+          writeString(out, component.getVersion());
+        }
+      }
+    }
+
+    final long bytes = temporary.length();
+    Files.move(temporary.toPath(), file.toPath(),
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    return bytes;
+  }
+
+  // The config file is replaced by a rename on every save, which also sets a new modified time.
+  private static BasicFileAttributes attributes(File source) throws IOException {
+    return Files.readAttributes(source.toPath(), BasicFileAttributes.class);
+  }
+
+  private static long modified(BasicFileAttributes attributes) {
+    return attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) {
+      out.writeUTF(value);
+    }
+  }
+}
@@ -0,0 +1,46 @@
+package com.joelws.componenttracker;
+/*
+Copyright 2016 Joel Whittaker-Smith
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import com.joelws.componenttracker.model.ComponentManifest;
+import java.io.IOException;
+
+/**
+ * Where a {@link TrackedManifest} commits its updates. Every write names the manifest it was
+ * based on and only succeeds while that is still the latest one, so writers never silently
+ * overwrite each other, whether they run in this JVM or on another controller.
+ */
+interface ManifestStorage {
+
+  /**
+   * Brings the tracked manifest up to date with changes committed elsewhere.
+   */
+  void refresh();
+
+  /**
+   * Makes the update the latest manifest and records it in the history, unless expected no
+   * longer is.
+   *
+   * @param expected the manifest the update was based on, null if there was none
+   * @return false when another writer committed first
+   */
+  boolean compareAndSet(ComponentManifest expected, ComponentManifest updated) throws IOException;
+
+  /**
+   * Persists the latest manifest after it was changed other than by compareAndSet.
+   */
+  void save();
+}
@@ -14,13 +14,35 @@ See the License for the specific language governing permissions and
 limitations under the License.
 */
 
-import com.google.gson.Gson;
 import com.joelws.componenttracker.model.ComponentManifest;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
 import hudson.util.Secret;
-import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import org.apache.maven.repository.internal.MavenRepositorySystemUtils;
 import org.eclipse.aether.DefaultRepositorySystemSession;
 import org.eclipse.aether.RepositorySystem;
@@ -35,7 +57,11 @@ import org.eclipse.aether.repository.Authentication;
 import org.eclipse.aether.repository.LocalRepository;
 import org.eclipse.aether.repository.RemoteRepository;
 import org.eclipse.aether.spi.connector.RepositoryConnectorFactory;
+import org.eclipse.aether.spi.connector.transport.GetTask;
+import org.eclipse.aether.spi.connector.transport.Transporter;
 import org.eclipse.aether.spi.connector.transport.TransporterFactory;
+import org.eclipse.aether.spi.connector.transport.TransporterProvider;
+import org.eclipse.aether.transfer.NoTransporterException;
 import org.eclipse.aether.transport.file.FileTransporterFactory;
 import org.eclipse.aether.transport.http.HttpTransporterFactory;
 import org.eclipse.aether.util.repository.AuthenticationBuilder;
@@ -48,6 +74,37 @@ public class MavenTransport {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(MavenTransport.class);
 
+  private static final long TARGET_TIMEOUT_SECONDS = Long
+      .getLong(MavenTransport.class.getName() + ".targetTimeoutSeconds", 120L);
+
+  private static final boolean CHECK_REMOTE_DIGEST = !Boolean
+      .getBoolean(MavenTransport.class.getName() + ".skipRemoteDigestCheck");
+
+  private static final int DIGEST_INDEX_SIZE = Integer
+      .getInteger(MavenTransport.class.getName() + ".digestIndexSize", 10000);
+
+  // SHA-1 of the artifacts last deployed, keyed by repository URL and artifact coordinates.
+  private final Map<String, String> deployedDigests = Collections.synchronizedMap(
+      new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+          return size() > DIGEST_INDEX_SIZE;
+        }
+      });
+
+  private final ExecutorService executor = Executors.newCachedThreadPool(
+      new NamingThreadFactory(new DaemonThreadFactory(), "ComponentTracker.MavenTransport"));
+
+  private final Map<TransportKey, TransportContext> contexts = new ConcurrentHashMap<>();
+
+  private volatile RepositorySystem system;
+
+  // Created with the repository system, from the same service locator.
+  private volatile TransporterProvider transporterProvider;
+
+  // Guards lazy creation of the repository system.
+  private final Object systemLock = new Object();
+
   private MavenTransport() {
   }
 
@@ -56,73 +113,362 @@ public class MavenTransport {
   }
 
 
-  public synchronized void archiveManifest(final String manifestFileLocation,
-      final String nexusUrl,
-      final String nexusUser,
-      final Secret nexusPassword)
+  /**
+   * Deploys the manifests to every target in parallel. The deploy succeeds once the quorum of
+   * targets has accepted it, a quorum of zero or less means every target must. Deploys to the
+   * other targets carry on in the background. Concurrent calls
+   * are safe, each stages its manifests in its own temporary files.
+   */
+  public void archiveManifests(final List<ComponentManifest> componentManifests,
+      final String groupId,
+      final List<DeploymentTarget> targets,
+      final int quorum)
       throws DeploymentException, IOException {
 
-    final ComponentManifest componentManifest = ComponentTrackerEndpoint.getInstance()
-        .getLatestManifest();
+    if (targets.isEmpty()) {
+      throw new DeploymentException("No Nexus repositories are configured");
+    }
+
+    final List<StagedArtifact> artifacts = new ArrayList<>();
+    final Map<Future<DeploymentTarget>, DeploymentTarget> deploys = new LinkedHashMap<>();
+
+    try {
+      for (ComponentManifest componentManifest : componentManifests) {
+        artifacts.add(stage(componentManifest, groupId));
+      }
+
+      final CompletionService<DeploymentTarget> completion =
+          new ExecutorCompletionService<>(executor);
+      for (final DeploymentTarget target : targets) {
+        deploys.put(completion.submit(() -> {
+          deploy(target, artifacts);
+          return target;
+        }), target);
+      }
+
+      awaitQuorum(completion, deploys, quorum);
+    } finally {
+      deleteWhenDone(artifacts, deploys);
+    }
+  }
+
+  // Serializes the manifest once in memory, the digest is taken from the same bytes that are
+  // written out for Aether to upload.
+  private static StagedArtifact stage(ComponentManifest componentManifest, String groupId)
+      throws IOException {
     LOGGER.debug("Archiving component Manifest: " + componentManifest.getName());
 
-    RepositorySystem system = newRepositorySystem();
-    RepositorySystemSession session = newSession(system);
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (Writer writer = new OutputStreamWriter(bytes, StandardCharsets.UTF_8)) {
+      ManifestJson.write(componentManifest, writer);
+    }
+    final byte[] json = bytes.toByteArray();
 
-    Gson gson = new Gson();
+    final Path temporaryManifestFile = Files.createTempFile(
+        "hts-component-manifest-" + componentManifest.getName() + "-"
+            + componentManifest.getVersion() + "-", ".json");
+    try {
+      Files.write(temporaryManifestFile, json);
+    } catch (IOException e) {
+      Files.deleteIfExists(temporaryManifestFile);
+      throw e;
+    }
 
     Artifact artifact = new DefaultArtifact(
-        "net.atos.hts",
+        groupId,
         componentManifest.getName(),
         "",
         "json",
         componentManifest.getVersion());
 
-    final String manifestAsJson = gson.toJson(componentManifest);
+    return new StagedArtifact(artifact.setFile(temporaryManifestFile.toFile()),
+        ManifestRepresentation.sha1(json));
+  }
+
+  // Returns as soon as the quorum is met, or can no longer be, leaving the other deploys running.
+  private static void awaitQuorum(CompletionService<DeploymentTarget> completion,
+      Map<Future<DeploymentTarget>, DeploymentTarget> deploys, int quorum)
+      throws DeploymentException, InterruptedIOException {
+    final int targets = deploys.size();
+    final int required = quorum > 0 ? Math.min(quorum, targets) : targets;
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TARGET_TIMEOUT_SECONDS);
+    final List<Throwable> failures = new ArrayList<>();
+    int succeeded = 0;
 
-    LOGGER.debug("Writing manifest file temporarily to filesystem...");
+    while (succeeded < required && targets - failures.size() >= required) {
+      final Future<DeploymentTarget> deploy;
+      try {
+        deploy = completion.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+      } catch (InterruptedException e) {
+        for (Future<?> future : deploys.keySet()) {
+          future.cancel(true);
+        }
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while deploying manifests");
+      }
 
-    LOGGER.debug(manifestAsJson);
+      if (deploy == null) {
+        for (Map.Entry<Future<DeploymentTarget>, DeploymentTarget> pending : deploys.entrySet()) {
+          if (!pending.getKey().isDone()) {
+            LOGGER.warn("Deploy to " + pending.getValue() + " timed out");
+            pending.getKey().cancel(true);
+            failures.add(
+                new DeploymentException("Deploy to " + pending.getValue() + " timed out"));
+          }
+        }
+        break;
+      }
 
-    BufferedWriter writer = new BufferedWriter(new FileWriter(manifestFileLocation));
-    writer.write(manifestAsJson);
-    writer.close();
+      final Throwable failure = getFailure(deploy);
+      if (failure == null) {
+        succeeded++;
+      } else {
+        LOGGER.warn("Deploy to " + deploys.get(deploy) + " failed", failure);
+        failures.add(failure);
+      }
+    }
+
+    if (succeeded < required) {
+      final DeploymentException exception = new DeploymentException(String.format(
+          "Deployed to %d of %d repositories, %d required", succeeded, targets, required));
+      for (Throwable failure : failures) {
+        exception.addSuppressed(failure);
+      }
+      throw exception;
+    }
+  }
 
-    final File temporaryManifestFile = new File(manifestFileLocation);
+  // Waits for the deploy, returning why it failed or null if it succeeded.
+  private static Throwable getFailure(Future<?> deploy) {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          deploy.get();
+          return null;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    } catch (ExecutionException e) {
+      return e.getCause();
+    } catch (CancellationException e) {
+      return e;
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  // Deploys left running after the quorum still read the staged files, so they are deleted once
+  // the last of them finishes instead of by the caller.
+  private void deleteWhenDone(final List<StagedArtifact> artifacts,
+      Map<Future<DeploymentTarget>, DeploymentTarget> deploys) {
+    final Map<Future<DeploymentTarget>, DeploymentTarget> running = new LinkedHashMap<>();
+    for (Map.Entry<Future<DeploymentTarget>, DeploymentTarget> deploy : deploys.entrySet()) {
+      if (!deploy.getKey().isDone()) {
+        running.put(deploy.getKey(), deploy.getValue());
+      }
+    }
+
+    if (running.isEmpty()) {
+      deleteStaged(artifacts);
+      return;
+    }
+
+    executor.execute(() -> {
+      for (Map.Entry<Future<DeploymentTarget>, DeploymentTarget> deploy : running.entrySet()) {
+        final Throwable failure = getFailure(deploy.getKey());
+        if (failure != null && !(failure instanceof CancellationException)) {
+          LOGGER.warn("Deploy to " + deploy.getValue() + " failed after the quorum", failure);
+        }
+      }
+      deleteStaged(artifacts);
+    });
+  }
+
+  private static void deleteStaged(List<StagedArtifact> artifacts) {
+    for (StagedArtifact staged : artifacts) {
+      try {
+        Files.deleteIfExists(staged.artifact.getFile().toPath());
+      } catch (IOException e) {
+        LOGGER.warn("Failed to delete " + staged.artifact.getFile(), e);
+      }
+    }
+  }
+
+  private void deploy(DeploymentTarget target, List<StagedArtifact> stagedArtifacts)
+      throws DeploymentException {
+    final String repositoryUrl = target.getRepositoryUrl();
+    final ComponentTrackerMetrics metrics = ComponentTrackerMetrics.getInstance();
+    final List<Artifact> artifacts = new ArrayList<>();
+    final TransportContext context = getContext(
+        repositoryUrl, target.getUser(), target.getPassword());
+
+    for (StagedArtifact staged : stagedArtifacts) {
+      if (staged.sha1.equals(deployedDigests.get(digestKey(repositoryUrl, staged.artifact)))
+          || (CHECK_REMOTE_DIGEST && remoteDigestMatches(context, staged))) {
+        LOGGER.debug(staged.artifact + " is already in " + repositoryUrl + ", skipping upload");
+        deployedDigests.put(digestKey(repositoryUrl, staged.artifact), staged.sha1);
+        metrics.increment(ComponentTrackerMetrics.labelled("deploy.skipped", "url", repositoryUrl));
+      } else {
+        artifacts.add(staged.artifact);
+      }
+    }
+
+    if (artifacts.isEmpty()) {
+      return;
+    }
+
+    final DeployRequest deployRequest = new DeployRequest();
+    deployRequest.setArtifacts(artifacts);
+    deployRequest.setRepository(context.repository);
+
+    LOGGER.debug("Deploying to nexus: " + repositoryUrl);
+    final long started = System.nanoTime();
+    boolean deployed = false;
+    try {
+      getRepositorySystem().deploy(context.session, deployRequest);
+      deployed = true;
+    } finally {
+      metrics.record(ComponentTrackerMetrics.labelled("deploy.nanos", "url", repositoryUrl),
+          System.nanoTime() - started);
+      if (!deployed) {
+        metrics.increment(
+            ComponentTrackerMetrics.labelled("deploy.failures", "url", repositoryUrl));
+      }
+    }
+
+    for (StagedArtifact staged : stagedArtifacts) {
+      deployedDigests.put(digestKey(repositoryUrl, staged.artifact), staged.sha1);
+    }
+  }
+
+  // Fetches the .sha1 file Nexus keeps next to each artifact, which is much smaller than the
+  // artifact itself. It goes through a transporter of the deploy session, so it uses the same
+  // credentials, proxy and pooled connections. Any failure just means the artifact is uploaded.
+  private boolean remoteDigestMatches(TransportContext context, StagedArtifact staged) {
+    final String location = path(staged.artifact) + ".sha1";
+
+    try (Transporter transporter = getTransporterProvider()
+        .newTransporter(context.session, context.repository)) {
+      final GetTask task = new GetTask(URI.create(location));
+
+      try {
+        transporter.get(task);
+      } catch (Exception e) {
+        if (transporter.classify(e) != Transporter.ERROR_NOT_FOUND) {
+          LOGGER.debug("Could not check " + location + " in " + context.repository.getUrl(), e);
+        }
+        return false;
+      }
+
+      // Some tools write "<digest>  <file name>", so only the first token counts.
+      final String remote = task.getDataString().trim();
+      final int end = remote.indexOf(' ');
+      return staged.sha1.equalsIgnoreCase(end < 0 ? remote : remote.substring(0, end));
+    } catch (NoTransporterException | IllegalArgumentException e) {
+      LOGGER.debug("Could not check " + location + " in " + context.repository.getUrl(), e);
+      return false;
+    }
+  }
 
-    artifact = artifact.setFile(temporaryManifestFile);
+  private static String path(Artifact artifact) {
+    final StringBuilder path = new StringBuilder()
+        .append(artifact.getGroupId().replace('.', '/')).append('/')
+        .append(artifact.getArtifactId()).append('/')
+        .append(artifact.getVersion()).append('/')
+        .append(artifact.getArtifactId()).append('-').append(artifact.getVersion());
+
+    if (!artifact.getClassifier().isEmpty()) {
+      path.append('-').append(artifact.getClassifier());
+    }
+    return path.append('.').append(artifact.getExtension()).toString();
+  }
+
+  private static String digestKey(String repositoryUrl, Artifact artifact) {
+    return repositoryUrl + '|' + artifact;
+  }
+
+  /**
+   * Drops every cached session so the next deploy picks up changed Nexus settings.
+   */
+  public void reset() {
+    LOGGER.debug("Resetting cached repository sessions");
+    contexts.clear();
+  }
+
+  private RepositorySystem getRepositorySystem() {
+    RepositorySystem result = system;
+    if (result == null) {
+      synchronized (systemLock) {
+        result = system;
+        if (result == null) {
+          final DefaultServiceLocator locator = newServiceLocator();
+          transporterProvider = locator.getService(TransporterProvider.class);
+          system = result = locator.getService(RepositorySystem.class);
+          ComponentTrackerMetrics.getInstance().increment("transport.systems.created");
+        }
+      }
+    }
+    return result;
+  }
+
+  private TransporterProvider getTransporterProvider() {
+    getRepositorySystem();
+    return transporterProvider;
+  }
+
+  private TransportContext getContext(final String repositoryUrl,
+      final String nexusUser,
+      final Secret nexusPassword) {
+    final TransportKey key = new TransportKey(repositoryUrl, nexusUser, nexusPassword);
+    TransportContext context = contexts.get(key);
+
+    if (context != null) {
+      ComponentTrackerMetrics.getInstance().increment("transport.contexts.reused");
+      return context;
+    }
+
+    return contexts.computeIfAbsent(key, this::newContext);
+  }
+
+  // The session is shared between deploys, so the HTTP transporter keeps its pooled
+  // keep-alive connections in the session data instead of opening new ones each time.
+  private TransportContext newContext(TransportKey key) {
+    LOGGER.debug("Creating repository session for " + key.url);
+    ComponentTrackerMetrics.getInstance().increment("transport.contexts.created");
+
+    final RepositorySystem system = getRepositorySystem();
+    final DefaultRepositorySystemSession session = newSession(system);
+    session.setReadOnly();
 
     Authentication authentication = new AuthenticationBuilder()
-        .addUsername(nexusUser)
-        .addPassword(Secret.toString(nexusPassword))
+        .addUsername(key.user)
+        .addPassword(Secret.toString(key.password))
         .build();
 
     RemoteRepository releaseRepo = new RemoteRepository.Builder(
         "releases",
         "default",
-        nexusUrl + File.separator + "content" + File.separator + "repositories" + File.separator
-            + "releases")
+        key.url)
         .setAuthentication(authentication)
         .build();
 
-    DeployRequest deployRequest = new DeployRequest();
-    deployRequest.addArtifact(artifact);
-    deployRequest.setRepository(releaseRepo);
-
-    LOGGER.debug("Deploying to nexus: " + nexusUrl);
-    system.deploy(session, deployRequest);
+    return new TransportContext(session, releaseRepo);
   }
 
 
-  private RepositorySystem newRepositorySystem() {
+  private static DefaultServiceLocator newServiceLocator() {
     DefaultServiceLocator locator = MavenRepositorySystemUtils.newServiceLocator();
     locator.addService(RepositoryConnectorFactory.class, BasicRepositoryConnectorFactory.class);
     locator.addService(TransporterFactory.class, FileTransporterFactory.class);
     locator.addService(TransporterFactory.class, HttpTransporterFactory.class);
-    return locator.getService(RepositorySystem.class);
+    return locator;
   }
 
-  private RepositorySystemSession newSession(RepositorySystem system) {
+  private DefaultRepositorySystemSession newSession(RepositorySystem system) {
     DefaultRepositorySystemSession session = MavenRepositorySystemUtils.newSession();
     LocalRepository localRepo = new LocalRepository(
         new File(System.getProperty("user.home"),
@@ -130,4 +476,66 @@ public class MavenTransport {
     session.setLocalRepositoryManager(system.newLocalRepositoryManager(session, localRepo));
     return session;
   }
+
+  private static final class StagedArtifact {
+
+    private final Artifact artifact;
+
+    private final String sha1;
+
+    private StagedArtifact(Artifact artifact, String sha1) {
+      this.artifact = artifact;
+      this.sha1 = sha1;
+    }
+  }
+
+  private static final class TransportContext {
+
+    private final RepositorySystemSession session;
+
+    private final RemoteRepository repository;
+
+    private TransportContext(RepositorySystemSession session, RemoteRepository repository) {
+      this.session = session;
+      this.repository = repository;
+    }
+  }
+
+  // Holds the password as the Secret it is configured as, so the plain text is only decrypted to
+  // compare keys and never kept in the cache.
+  private static final class TransportKey {
+
+    private final String url;
+
+    private final String user;
+
+    private final Secret password;
+
+    private TransportKey(String url, String user, Secret password) {
+      this.url = url;
+      this.user = user;
+      this.password = password;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+
+      TransportKey that = (TransportKey) o;
+
+      return Objects.equals(url, that.url)
+          && Objects.equals(user, that.user)
+          && Secret.toString(password).equals(Secret.toString(that.password));
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(url, user);
+    }
+  }
 }
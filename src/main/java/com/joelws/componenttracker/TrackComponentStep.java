@@ -0,0 +1,235 @@
+package com.joelws.componenttracker;
+/*
+Copyright 2016 Joel Whittaker-Smith
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import com.google.inject.Inject;
+import com.joelws.componenttracker.model.Component;
+import com.joelws.componenttracker.model.ComponentManifest;
+import com.joelws.componenttracker.model.SemanticVersion.Bump;
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepDescriptorImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepExecutionImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepImpl;
+import org.jenkinsci.plugins.workflow.steps.StepContextParameter;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pipeline counterpart of {@link ComponentTrackerPublisher}:
+ * <pre>trackComponent component: 'artifact-one', version: '1.2.3', bump: 'MINOR'</pre>
+ * The update and the deploy run on a shared pool, so no executor is held while Nexus is slow.
+ * The step returns the new manifest version.
+ */
+public class TrackComponentStep extends AbstractStepImpl {
+
+  private final String component;
+
+  private final String version;
+
+  private String manifest;
+
+  private Bump bump;
+
+  @DataBoundConstructor
+  public TrackComponentStep(String component, String version) {
+    this.component = component;
+    this.version = version;
+  }
+
+  public String getComponent() {
+    return component;
+  }
+
+  public String getVersion() {
+    return version;
+  }
+
+  public String getManifest() {
+    return manifest;
+  }
+
+  @DataBoundSetter
+  public void setManifest(String manifest) {
+    this.manifest = Util.fixEmptyAndTrim(manifest);
+  }
+
+  public Bump getBump() {
+    return bump != null ? bump : Bump.PATCH;
+  }
+
+  @DataBoundSetter
+  public void setBump(Bump bump) {
+    this.bump = bump;
+  }
+
+  public static class Execution extends AbstractStepExecutionImpl {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TrackComponentStep.class);
+
+    private static final int WORKERS = Integer
+        .getInteger(TrackComponentStep.class.getName() + ".workers", 4);
+
+    private static final ExecutorService POOL = newPool();
+
+    @Inject
+    private transient TrackComponentStep step;
+
+    @StepContextParameter
+    private transient TaskListener listener;
+
+    private transient volatile Future<?> task;
+
+    // The deploy may still complete after the step was stopped, only the first outcome counts.
+    private final AtomicBoolean completed = new AtomicBoolean();
+
+    // Claimed either by the task before it commits or by stop before it interrupts the task.
+    // Once the manifest is committed it has to be queued for deploy, so the task is left alone.
+    private final AtomicBoolean committing = new AtomicBoolean();
+
+    @Override
+    public boolean start() throws Exception {
+      task = POOL.submit(() -> {
+        try {
+          track();
+        } catch (Exception e) {
+          fail(e);
+        }
+      });
+      return false;
+    }
+
+    @Override
+    public void stop(Throwable cause) throws Exception {
+      final Future<?> running = task;
+      if (running != null && committing.compareAndSet(false, true)) {
+        running.cancel(true);
+      }
+      fail(cause);
+    }
+
+    @Override
+    public void onResume() {
+      fail(new AbortException("Jenkins was restarted while the component was"
+          + " being tracked, queued deploys are resumed but their outcome is not reported"));
+    }
+
+    private void track() throws Exception {
+      final ComponentTrackerEndpoint endpoint = ComponentTrackerEndpoint.getInstance();
+      final TrackedManifest trackedManifest = step.getManifest() != null
+          ? endpoint.getTrackedManifest(step.getManifest())
+          : endpoint.getDefaultManifest();
+
+      if (trackedManifest == null) {
+        throw new AbortException("No manifest named "
+            + (step.getManifest() != null ? step.getManifest() : "as default"));
+      }
+
+      final ComponentManifest latestManifest = trackedManifest.getLatestManifest();
+      final Component current = latestManifest != null
+          ? latestManifest.getComponent(step.getComponent())
+          : null;
+
+      if (current != null && step.getVersion().equals(current.getVersion())) {
+        listener.getLogger().println(step.getComponent() + " is already at " + step.getVersion()
+            + " in " + trackedManifest.getName() + ", nothing to deploy");
+        succeed(latestManifest.getVersion());
+        return;
+      }
+
+      if (!committing.compareAndSet(false, true)) {
+        // Stopped before anything was committed.
+        return;
+      }
+
+      final ComponentManifest updatedManifest = trackedManifest.updateComponentsInManifest(
+          Collections.singletonMap(step.getComponent(), step.getVersion()), step.getBump());
+
+      if (updatedManifest == null) {
+        throw new AbortException("Could not update " + step.getComponent() + " in manifest "
+            + trackedManifest.getName());
+      }
+
+      listener.getLogger().println("Deploying " + trackedManifest.getName() + " "
+          + updatedManifest.getVersion() + " with " + step.getComponent() + " "
+          + step.getVersion());
+
+      // Nothing waits on the deploy, the queue resumes the step when it is done.
+      DeploymentQueue.getInstance().submit(updatedManifest).whenComplete((done, failure) -> {
+        if (failure != null) {
+          LOGGER.warn("Deployment of " + trackedManifest.getName() + " failed", failure);
+          fail(failure);
+        } else {
+          succeed(updatedManifest.getVersion());
+        }
+      });
+    }
+
+    private void succeed(Object result) {
+      if (completed.compareAndSet(false, true)) {
+        getContext().onSuccess(result);
+      }
+    }
+
+    private void fail(Throwable cause) {
+      if (completed.compareAndSet(false, true)) {
+        getContext().onFailure(cause);
+      }
+    }
+
+    private static ExecutorService newPool() {
+      final ThreadPoolExecutor pool = new ThreadPoolExecutor(
+          WORKERS, WORKERS, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+          new NamingThreadFactory(new DaemonThreadFactory(),
+              "ComponentTracker.TrackComponentStep"));
+      pool.allowCoreThreadTimeOut(true);
+      return pool;
+    }
+  }
+
+  @Extension
+  public static class DescriptorImpl extends AbstractStepDescriptorImpl {
+
+    public DescriptorImpl() {
+      super(Execution.class);
+    }
+
+    @Override
+    public String getFunctionName() {
+      return "trackComponent";
+    }
+
+    @Override
+    public String getDisplayName() {
+      return "Track a component version in a manifest and deploy it to Nexus";
+    }
+  }
+}
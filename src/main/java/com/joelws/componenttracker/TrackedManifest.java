@@ -0,0 +1,520 @@
+package com.joelws.componenttracker;
+/*
+Copyright 2016 Joel Whittaker-Smith
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import com.joelws.componenttracker.model.ComponentManifest;
+import com.joelws.componenttracker.model.SemanticVersion;
+import com.joelws.componenttracker.model.SemanticVersion.Bump;
+import hudson.BulkChange;
+import hudson.XmlFile;
+import hudson.model.Saveable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One named manifest with its own config file, history and write-behind persister, so that
+ * updates to different manifests never contend with each other.
+ */
+public class TrackedManifest implements Saveable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(TrackedManifest.class);
+
+  private static final AtomicReferenceFieldUpdater<TrackedManifest, ComponentManifest>
+      LATEST_MANIFEST = AtomicReferenceFieldUpdater.newUpdater(
+      TrackedManifest.class, ComponentManifest.class, "latestManifest");
+
+  private static final long FLUSH_INTERVAL_MILLIS = Long
+      .getLong(ComponentTrackerEndpoint.class.getName() + ".flushIntervalMillis", 1000L);
+
+  private static final boolean BINARY_SNAPSHOT = Boolean
+      .getBoolean(TrackedManifest.class.getName() + ".binarySnapshot");
+
+  private static final String STORAGE = System
+      .getProperty(ComponentTrackerEndpoint.class.getName() + ".storage", "local");
+
+  private static final String FILE_LOCK_STORAGE = "file-lock";
+
+  private static final long COALESCE_MILLIS = Long
+      .getLong(ComponentTrackerEndpoint.class.getName() + ".coalesceMillis", 0L);
+
+  private final transient String name;
+
+  private final transient File rootDirectory;
+
+  private transient ManifestHistory history;
+
+  private transient volatile ManifestRepresentation representation;
+
+  private final transient WriteBehindPersister persister;
+
+  private final transient ManifestStorage storage;
+
+  private final transient ManifestCoalescer coalescer;
+
+  private final transient boolean binarySnapshot;
+
+  private transient volatile boolean loaded;
+
+  // Published manifests are never modified in place, updates swap in a modified copy.
+  private volatile ComponentManifest latestManifest;
+
+  /**
+   * Nothing is read until the manifest is first used, so startup cost does not depend on the
+   * size of the manifest or its history.
+   *
+   * @param rootDirectory directory holding the config files and history of every manifest
+   */
+  public TrackedManifest(File rootDirectory, String name) {
+    this(rootDirectory, name, BINARY_SNAPSHOT, FILE_LOCK_STORAGE.equals(STORAGE));
+  }
+
+  /**
+   * @param binarySnapshot whether to keep a binary snapshot next to the XML config file and load
+   * from it when it is up to date
+   * @param fileLock whether to commit through {@link FileLockManifestStorage}, for controllers
+   * sharing the root directory
+   */
+  TrackedManifest(File rootDirectory, String name, boolean binarySnapshot, boolean fileLock) {
+    this.rootDirectory = rootDirectory;
+    this.name = name;
+    // The snapshot is written behind, so it could be older than a commit from another controller.
+    this.binarySnapshot = binarySnapshot && !fileLock;
+    this.persister = this.binarySnapshot
+        ? new WriteBehindPersister(this, getConfigFile(), FLUSH_INTERVAL_MILLIS) {
+          @Override
+          protected long write() throws IOException {
+            final ComponentManifest snapshot = latestManifest;
+            final long bytes = super.write();
+            // If the manifest changed while writing, the XML may hold the newer one. The old
+            // snapshot no longer matches its size and modified time, and the next flush writes a
+            // new one.
+            if (snapshot == null || snapshot != latestManifest) {
+              return bytes;
+            }
+            return bytes + ManifestSnapshot.write(snapshot, getConfigFile().getFile(),
+                getSnapshotFile());
+          }
+        }
+        : new WriteBehindPersister(this, getConfigFile(), FLUSH_INTERVAL_MILLIS);
+    this.storage = fileLock
+        ? new FileLockManifestStorage(this,
+            new File(rootDirectory, "manifests" + File.separator + name + ".lock"))
+        : new LocalStorage();
+    this.coalescer = new ManifestCoalescer(this, COALESCE_MILLIS);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public boolean isLoaded() {
+    return loaded;
+  }
+
+  // Whether other controllers commit to the same config file and history.
+  boolean isShared() {
+    return storage instanceof FileLockManifestStorage;
+  }
+
+  public ComponentManifest getLatestManifest() {
+    ensureLoaded();
+    storage.refresh();
+    return latestManifest;
+  }
+
+  /**
+   * Returns the manifest as it was at the given version, or null if it is not in the history.
+   */
+  public ComponentManifest getManifest(String version) throws IOException {
+    final ComponentManifest latestManifest = getLatestManifest();
+
+    if (latestManifest != null && version.equals(latestManifest.getVersion())) {
+      return latestManifest;
+    }
+    return history != null ? history.getManifest(version) : null;
+  }
+
+  /**
+   * Versions of this manifest that held the component at the given version, oldest first.
+   */
+  public List<String> findVersions(String component, String version) throws IOException {
+    final ManifestHistory history = getHistory();
+    return history != null
+        ? history.findVersions(component, version)
+        : Collections.<String>emptyList();
+  }
+
+  /**
+   * Serialized form of the latest manifest, rebuilt only after the manifest has been replaced.
+   */
+  public ManifestRepresentation getRepresentation() throws IOException {
+    final ComponentManifest latestManifest = getLatestManifest();
+    ManifestRepresentation result = representation;
+
+    if (result == null || result.getManifest() != latestManifest) {
+      result = ManifestRepresentation.of(latestManifest);
+      representation = result;
+    }
+    return result;
+  }
+
+  public ManifestHistory getHistory() {
+    ensureLoaded();
+    return history;
+  }
+
+  public WriteBehindPersister getPersister() {
+    return persister;
+  }
+
+  /**
+   * Replaces the manifest, retrying until no concurrent update gets in between.
+   *
+   * @return false if the manifest could not be stored
+   */
+  public boolean setLatestManifest(ComponentManifest latestManifest) {
+    final long started = System.nanoTime();
+    int attempts = 0;
+    ComponentManifest previousManifest;
+
+    try {
+      do {
+        attempts++;
+        previousManifest = getLatestManifest();
+        if (latestManifest.equals(previousManifest)) {
+          // Nothing to save, history or feed entry to write for a resubmitted manifest.
+          ComponentTrackerMetrics.getInstance().increment("manifest.unchanged");
+          return true;
+        }
+        latestManifest.setRevision(
+            previousManifest != null ? previousManifest.getRevision() + 1 : 1);
+      } while (!storage.compareAndSet(previousManifest, latestManifest));
+    } catch (IOException e) {
+      LOGGER.error("Failed to store manifest " + name, e);
+      return false;
+    }
+
+    committed("manifest.replace", started, attempts, latestManifest);
+    return true;
+  }
+
+  /**
+   * Replaces the manifest like {@link #setLatestManifest(ComponentManifest)}, coalescing with
+   * concurrent submissions so only the newest of them is committed.
+   */
+  public void submitLatestManifest(ComponentManifest latestManifest)
+      throws InterruptedException, IOException {
+    coalescer.submit(latestManifest);
+  }
+
+  /**
+   * Replaces the manifest only while expected is the latest one, e.g. the manifest a client
+   * named with If-Match.
+   *
+   * @return false if another update was committed first or the manifest could not be stored
+   */
+  public boolean setLatestManifest(ComponentManifest latestManifest, ComponentManifest expected) {
+    final long started = System.nanoTime();
+    latestManifest.setRevision(expected != null ? expected.getRevision() + 1 : 1);
+
+    if (!commit(expected, latestManifest)) {
+      return false;
+    }
+    committed("manifest.replace", started, 1, latestManifest);
+    return true;
+  }
+
+  public ComponentManifest updateComponentsInManifest(Map<String, String> versions) {
+    return updateComponentsInManifest(versions, Bump.PATCH);
+  }
+
+  /**
+   * Applies all of the component versions with a single version bump and a single save. Nothing
+   * is changed unless every named component is in the manifest and the manifest has a semantic
+   * version.
+   *
+   * @return the updated manifest, or null if nothing was changed
+   */
+  public ComponentManifest updateComponentsInManifest(Map<String, String> versions, Bump bump) {
+    final long started = System.nanoTime();
+    int attempts = 0;
+    ComponentManifest latestManifest;
+    ComponentManifest updatedManifest;
+
+    try {
+      do {
+        attempts++;
+        latestManifest = getLatestManifest();
+        updatedManifest = withComponentVersions(latestManifest, versions, bump);
+
+        if (updatedManifest == null) {
+          return null;
+        }
+      } while (!storage.compareAndSet(latestManifest, updatedManifest));
+    } catch (IOException e) {
+      LOGGER.error("Failed to store manifest " + name, e);
+      return null;
+    }
+
+    committed("manifest.update", started, attempts, updatedManifest);
+    return updatedManifest;
+  }
+
+  /**
+   * Applies the component versions to expected, and commits the result only while expected is
+   * the latest manifest.
+   *
+   * @return the updated manifest, or null if nothing was changed
+   */
+  public ComponentManifest updateComponentsInManifest(Map<String, String> versions, Bump bump,
+      ComponentManifest expected) {
+    final long started = System.nanoTime();
+    final ComponentManifest updatedManifest = withComponentVersions(expected, versions, bump);
+
+    if (updatedManifest == null || !commit(expected, updatedManifest)) {
+      return null;
+    }
+    committed("manifest.update", started, 1, updatedManifest);
+    return updatedManifest;
+  }
+
+  private boolean commit(ComponentManifest expected, ComponentManifest updated) {
+    try {
+      return storage.compareAndSet(expected, updated);
+    } catch (IOException e) {
+      LOGGER.error("Failed to store manifest " + name, e);
+      return false;
+    }
+  }
+
+  private void committed(String metric, long started, int attempts,
+      ComponentManifest committedManifest) {
+    recordSwap(metric, started, attempts);
+    ManifestChangeFeed.getInstance().publish(committedManifest);
+  }
+
+  /**
+   * Swaps the in-memory manifest, leaving persistence to the storage.
+   */
+  boolean swap(ComponentManifest expected, ComponentManifest updated) {
+    return LATEST_MANIFEST.compareAndSet(this, expected, updated);
+  }
+
+  /**
+   * Takes on the manifest read from storage.
+   *
+   * @param changed whether another controller committed it since this one last read or wrote
+   */
+  void reloaded(ComponentManifest stored, boolean changed) {
+    LATEST_MANIFEST.set(this, stored);
+
+    // Another controller may have appended to the history since it was read.
+    if (history != null) {
+      try {
+        history.catchUp();
+      } catch (IOException e) {
+        LOGGER.warn("Failed to reread the manifest history of " + name, e);
+      }
+    }
+
+    if (changed && stored != null) {
+      LOGGER.info("Manifest " + name + " was updated to " + stored.getVersion() + " elsewhere");
+      ManifestChangeFeed.getInstance().publish(stored);
+    }
+  }
+
+  // Swaps are lock free, so time spent retrying after losing a race stands in for lock wait.
+  private static void recordSwap(String metric, long started, int attempts) {
+    final ComponentTrackerMetrics metrics = ComponentTrackerMetrics.getInstance();
+    metrics.record(metric + ".nanos", System.nanoTime() - started);
+    if (attempts > 1) {
+      metrics.add(metric + ".retries", attempts - 1);
+    }
+  }
+
+  /**
+   * Appends a committed manifest to the history. Storage calls this while the commit is still
+   * exclusive, so controllers sharing the history never append concurrently.
+   */
+  void record(ComponentManifest componentManifest) {
+    if (history != null) {
+      try {
+        history.append(componentManifest);
+      } catch (IOException e) {
+        LOGGER.error("Failed to record manifest history", e);
+      }
+    }
+  }
+
+  private static ComponentManifest withComponentVersions(ComponentManifest latestManifest,
+      Map<String, String> versions, Bump bump) {
+    if (latestManifest == null) {
+      return null;
+    }
+
+    for (String name : versions.keySet()) {
+      if (latestManifest.getComponent(name) == null) {
+        LOGGER.warn("Not updating manifest " + latestManifest.getName() + ", it has no component "
+            + name);
+        return null;
+      }
+    }
+
+    final SemanticVersion version = latestManifest.getSemanticVersion();
+
+    if (version == null) {
+      LOGGER.warn("Not updating manifest " + latestManifest.getName() + ", its version '"
+          + latestManifest.getVersion() + "' is not a semantic version");
+      return null;
+    }
+
+    final ComponentManifest updatedManifest = latestManifest.copy();
+    updatedManifest.setRevision(latestManifest.getRevision() + 1);
+    updatedManifest.setVersion(version.bump(bump));
+
+    for (Map.Entry<String, String> componentVersion : versions.entrySet()) {
+      updatedManifest.setComponentVersion(componentVersion.getKey(), componentVersion.getValue());
+    }
+
+    return updatedManifest;
+  }
+
+  @Override
+  public void save() {
+    if (!BulkChange.contains(this)) {
+      storage.save();
+    }
+  }
+
+  private void ensureLoaded() {
+    if (!loaded) {
+      synchronized (this) {
+        if (!loaded) {
+          load();
+          openHistory();
+          loaded = true;
+        }
+      }
+    }
+  }
+
+  private void openHistory() {
+    try {
+      history = new ManifestHistory(getHistoryDirectory());
+      if (history.isEmpty() && latestManifest != null) {
+        history.append(latestManifest);
+      }
+    } catch (IOException e) {
+      LOGGER.warn("Manifest history of " + name + " is unavailable", e);
+    }
+  }
+
+  private void load() {
+    XmlFile file = getConfigFile();
+    final File snapshot = getSnapshotFile();
+
+    // Only trusted when written with the XML as it is now, which is checked without reading it.
+    if (binarySnapshot && snapshot.exists() && file.exists()) {
+      try {
+        LOGGER.debug("Loading state of " + name + " from binary snapshot");
+        latestManifest = ManifestSnapshot.read(snapshot, file.getFile());
+        ComponentTrackerMetrics.getInstance().add("manifest.load.bytes", snapshot.length());
+        return;
+      } catch (IOException e) {
+        LOGGER.warn("Failed to load " + snapshot.getName() + ", falling back to XML", e);
+      }
+    }
+
+    if (file.exists()) {
+      try {
+        LOGGER.debug("Loading state of " + name + " from filesystem");
+        file.unmarshal(this);
+        ComponentTrackerMetrics.getInstance().add("manifest.load.bytes", file.getFile().length());
+      } catch (IOException e) {
+        LOGGER.warn(String.format("Failed to load %s", file.getFile().getName()));
+      }
+
+      // Migrate to the snapshot on the next flush.
+      if (binarySnapshot && latestManifest != null) {
+        persister.markDirty();
+      }
+    }
+  }
+
+  private File getHistoryDirectory() {
+    return new File(rootDirectory, "history" + File.separator + name);
+  }
+
+  private File getSnapshotFile() {
+    return new File(rootDirectory, "manifests" + File.separator + name + ".bin");
+  }
+
+  /**
+   * Reads the manifest from a config file written by another instance.
+   */
+  static ComponentManifest read(XmlFile file) throws IOException {
+    if (!file.exists()) {
+      return null;
+    }
+    final Object stored = file.read();
+    if (!(stored instanceof TrackedManifest)) {
+      throw new IOException(file + " does not hold a manifest");
+    }
+    return ((TrackedManifest) stored).latestManifest;
+  }
+
+  XmlFile getConfigFile() {
+    return new XmlFile(new File(rootDirectory, "manifests" + File.separator + name + ".xml"));
+  }
+
+  /**
+   * Keeps the manifest in memory, where compare-and-set is a reference swap, and writes it
+   * behind. Only safe while this JVM is the only one writing the root directory.
+   */
+  private final class LocalStorage implements ManifestStorage {
+
+    // Orders commits with their history entries. Readers never take it, they only read the
+    // swapped reference.
+    private final Object commitLock = new Object();
+
+    @Override
+    public void refresh() {
+    }
+
+    @Override
+    public boolean compareAndSet(ComponentManifest expected, ComponentManifest updated) {
+      synchronized (commitLock) {
+        if (!swap(expected, updated)) {
+          return false;
+        }
+        TrackedManifest.this.save();
+        record(updated);
+      }
+      return true;
+    }
+
+    @Override
+    public void save() {
+      persister.markDirty();
+    }
+  }
+}
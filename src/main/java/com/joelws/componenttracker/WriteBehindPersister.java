@@ -0,0 +1,189 @@
+package com.joelws.componenttracker;
+/*
+Copyright 2016 Joel Whittaker-Smith
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import hudson.XmlFile;
+import hudson.init.Terminator;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import jenkins.util.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces saves of a {@link Saveable} into at most one write per interval, notifying
+ * {@link SaveableListener}s after each. A failed write is retried with exponential backoff until
+ * one succeeds.
+ */
+public class WriteBehindPersister {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(WriteBehindPersister.class);
+
+  private static final String PROPERTY_PREFIX = WriteBehindPersister.class.getName();
+
+  private static final long INITIAL_BACKOFF_MILLIS = Long
+      .getLong(PROPERTY_PREFIX + ".initialBackoffMillis", 1000L);
+
+  private static final long MAX_BACKOFF_MILLIS = Long
+      .getLong(PROPERTY_PREFIX + ".maxBackoffMillis", 60000L);
+
+  private static final Set<WriteBehindPersister> PERSISTERS = Collections
+      .synchronizedSet(Collections.newSetFromMap(new WeakHashMap<WriteBehindPersister, Boolean>()));
+
+  private final Saveable owner;
+
+  private final XmlFile file;
+
+  private final long intervalMillis;
+
+  private final AtomicInteger pendingUpdates = new AtomicInteger();
+
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+
+  private final Object flushLock = new Object();
+
+  private int failedFlushes;
+
+  public WriteBehindPersister(Saveable owner, XmlFile file, long intervalMillis) {
+    this.owner = owner;
+    this.file = file;
+    this.intervalMillis = intervalMillis;
+    PERSISTERS.add(this);
+  }
+
+  @Terminator
+  public static void flushAll() {
+    final List<WriteBehindPersister> persisters;
+    synchronized (PERSISTERS) {
+      persisters = new ArrayList<>(PERSISTERS);
+    }
+
+    for (WriteBehindPersister persister : persisters) {
+      persister.flush();
+    }
+  }
+
+  public void markDirty() {
+    pendingUpdates.incrementAndGet();
+
+    if (intervalMillis <= 0) {
+      flush();
+    } else {
+      schedule(intervalMillis);
+    }
+  }
+
+  private void schedule(long delayMillis) {
+    if (scheduled.compareAndSet(false, true)) {
+      runLater(new Runnable() {
+        @Override
+        public void run() {
+          scheduled.set(false);
+          flush();
+        }
+      }, delayMillis);
+    }
+  }
+
+  void runLater(Runnable task, long delayMillis) {
+    Timer.get().schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  public void flush() {
+    synchronized (flushLock) {
+      final int absorbed = pendingUpdates.getAndSet(0);
+
+      if (absorbed == 0) {
+        return;
+      }
+
+      try {
+        persist(absorbed);
+      } catch (IOException e) {
+        pendingUpdates.addAndGet(absorbed);
+        failedFlushes++;
+
+        // Nothing else may mark the owner dirty, so the retry has to be scheduled here.
+        final long backoff = Math.min(
+            INITIAL_BACKOFF_MILLIS << Math.min(failedFlushes - 1, 16),
+            MAX_BACKOFF_MILLIS);
+        LOGGER.error(String.format("%s, retrying in %d ms", e.getMessage(), backoff));
+        schedule(backoff);
+      }
+    }
+  }
+
+  /**
+   * Writes the owner now, along with any pending updates, for callers that must not go on until
+   * it is on disk. A failure is thrown to the caller instead of being retried.
+   */
+  public void flushNow() throws IOException {
+    synchronized (flushLock) {
+      final int absorbed = pendingUpdates.getAndSet(0);
+
+      try {
+        persist(absorbed + 1);
+      } catch (IOException e) {
+        pendingUpdates.addAndGet(absorbed);
+        throw e;
+      }
+    }
+  }
+
+  // Called holding the flush lock.
+  private void persist(int absorbed) throws IOException {
+    final ComponentTrackerMetrics metrics = ComponentTrackerMetrics.getInstance();
+    final long started = System.nanoTime();
+    final long bytes;
+
+    try {
+      LOGGER.debug("Persisting state to filesystem");
+      bytes = write();
+    } catch (IOException e) {
+      metrics.increment("save.failures");
+      throw e;
+    }
+    SaveableListener.fireOnChange(owner, file);
+
+    metrics.record("save.nanos", System.nanoTime() - started);
+    metrics.record("save.bytes", bytes);
+    metrics.record("save.absorbed", absorbed);
+    failedFlushes = 0;
+  }
+
+  /**
+   * Writes the owner to the config file, which {@link XmlFile} replaces atomically.
+   *
+   * @return the number of bytes written
+   */
+  protected long write() throws IOException {
+    file.write(owner);
+    return file.getFile().length();
+  }
+
+  public int getPendingUpdates() {
+    return pendingUpdates.get();
+  }
+}
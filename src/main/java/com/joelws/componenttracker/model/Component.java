@@ -28,6 +28,8 @@ public class Component extends AbstractDescribableImpl<Component> {
 
   private String version;
 
+  private transient volatile SemanticVersion semanticVersion;
+
   @DataBoundConstructor
   public Component(String name, String version) {
     this.name = name;
@@ -48,6 +50,29 @@ public class Component extends AbstractDescribableImpl<Component> {
 
   public void setVersion(String version) {
     this.version = version;
+    semanticVersion = null;
+  }
+
+  public void setVersion(SemanticVersion version) {
+    setVersion(version.toString());
+    semanticVersion = version;
+  }
+
+  /**
+   * The parsed version, or null when it is not a semantic version.
+   */
+  public SemanticVersion getSemanticVersion() {
+    SemanticVersion result = semanticVersion;
+
+    if (result == null || !result.toString().equals(version)) {
+      result = SemanticVersion.parse(version);
+      semanticVersion = result;
+    }
+    return result;
+  }
+
+  public Component copy() {
+    return new Component(name, version);
   }
 
   @Override
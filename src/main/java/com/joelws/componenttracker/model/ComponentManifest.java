@@ -15,25 +15,175 @@ See the License for the specific language governing permissions and
 limitations under the License.
 */
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import org.kohsuke.stapler.DataBoundConstructor;
 
 public class ComponentManifest extends Component {
 
   private List<Component> artifacts;
 
+  // Name to position in artifacts, rebuilt lazily as XStream and Gson leave it unset.
+  private transient volatile Map<String, Integer> index;
+
+  private transient int hashCode;
+
+  private transient long revision;
+
   @DataBoundConstructor
   public ComponentManifest(String name, String version, List<Component> artifacts) {
     super(name, version);
-    this.artifacts = artifacts;
+    this.artifacts = unique(artifacts);
   }
 
+  /**
+   * Read-only view of the components. Components held by a manifest must only be changed through
+   * the manifest so its index and cached hash code stay valid.
+   */
   public List<Component> getArtifacts() {
-    return artifacts;
+    return artifacts != null ? Collections.unmodifiableList(artifacts) : null;
   }
 
   public void setArtifacts(List<Component> artifacts) {
-    this.artifacts = artifacts;
+    this.artifacts = unique(artifacts);
+    index = null;
+    hashCode = 0;
+  }
+
+  @Override
+  public void setName(String name) {
+    super.setName(name);
+    hashCode = 0;
+  }
+
+  @Override
+  public void setVersion(String version) {
+    super.setVersion(version);
+    hashCode = 0;
+  }
+
+  /**
+   * A copy of the named component, so changing it can not leave the manifest's index or cached
+   * hash code out of date. Use {@link #setComponentVersion} to change the manifest.
+   */
+  public Component getComponent(String name) {
+    final Component component = find(name);
+    return component != null ? component.copy() : null;
+  }
+
+  private Component find(String name) {
+    final Integer position = index().get(name);
+    return position != null ? artifacts.get(position) : null;
+  }
+
+  /**
+   * Sets the version of the named component, returning false when there is no such component.
+   */
+  public boolean setComponentVersion(String name, String version) {
+    final Component component = find(name);
+
+    if (component == null) {
+      return false;
+    }
+
+    component.setVersion(version);
+    hashCode = 0;
+    return true;
+  }
+
+  /**
+   * Replaces the component with the same name, or appends it when the name is new.
+   */
+  public void putComponent(Component component) {
+    if (artifacts == null) {
+      artifacts = new ArrayList<>();
+    }
+
+    final Map<String, Integer> index = index();
+    final Integer position = index.get(component.getName());
+
+    if (position != null) {
+      artifacts.set(position, component);
+    } else {
+      index.put(component.getName(), artifacts.size());
+      artifacts.add(component);
+    }
+    hashCode = 0;
+  }
+
+  public boolean removeComponent(String name) {
+    final Integer position = index().get(name);
+
+    if (position == null) {
+      return false;
+    }
+
+    artifacts.remove(position.intValue());
+    index = null;
+    hashCode = 0;
+    return true;
+  }
+
+  /**
+   * In-memory commit counter, used to order snapshots published by concurrent updates.
+   */
+  public long getRevision() {
+    return revision;
+  }
+
+  public void setRevision(long revision) {
+    this.revision = revision;
+  }
+
+  private Map<String, Integer> index() {
+    Map<String, Integer> result = index;
+
+    if (result == null) {
+      result = new HashMap<>();
+
+      if (artifacts != null) {
+        for (int i = 0; i < artifacts.size(); i++) {
+          result.put(artifacts.get(i).getName(), i);
+        }
+      }
+      index = result;
+    }
+    return result;
+  }
+
+  private Object readResolve() {
+    artifacts = unique(artifacts);
+    return this;
+  }
+
+  // Later duplicates replace earlier ones in place, which matches the old last-match-wins update.
+  private static List<Component> unique(List<Component> artifacts) {
+    if (artifacts == null) {
+      return null;
+    }
+
+    final Map<String, Component> byName = new LinkedHashMap<>();
+    for (Component artifact : artifacts) {
+      byName.put(artifact.getName(), artifact);
+    }
+    return new ArrayList<>(byName.values());
+  }
+
+  @Override
+  public ComponentManifest copy() {
+    List<Component> artifactsCopy = null;
+
+    if (artifacts != null) {
+      artifactsCopy = new ArrayList<>(artifacts.size());
+      for (Component artifact : artifacts) {
+        artifactsCopy.add(artifact.copy());
+      }
+    }
+    return new ComponentManifest(getName(), getVersion(), artifactsCopy);
   }
 
   @Override
@@ -44,19 +194,28 @@ public class ComponentManifest extends Component {
     if (o == null || getClass() != o.getClass()) {
       return false;
     }
+
+    ComponentManifest that = (ComponentManifest) o;
+
+    if (hashCode != 0 && that.hashCode != 0 && hashCode != that.hashCode) {
+      return false;
+    }
     if (!super.equals(o)) {
       return false;
     }
 
-    ComponentManifest that = (ComponentManifest) o;
-
     return artifacts != null ? artifacts.equals(that.artifacts) : that.artifacts == null;
   }
 
   @Override
   public int hashCode() {
-    int result = super.hashCode();
-    result = 31 * result + (artifacts != null ? artifacts.hashCode() : 0);
+    int result = hashCode;
+
+    if (result == 0) {
+      result = super.hashCode();
+      result = 31 * result + (artifacts != null ? artifacts.hashCode() : 0);
+      hashCode = result;
+    }
     return result;
   }
 }
@@ -0,0 +1,105 @@
+package com.joelws.componenttracker.model;
+/*
+Copyright 2016 Joel Whittaker-Smith
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The components that were added or changed, and the names of those removed, between two
+ * versions of a manifest.
+ */
+public class ManifestDelta extends ComponentManifest {
+
+  private String since;
+
+  private List<String> removed;
+
+  public ManifestDelta(String name, String version, String since, List<Component> artifacts,
+      List<String> removed) {
+    super(name, version, artifacts);
+    this.since = since;
+    this.removed = removed;
+  }
+
+  public static ManifestDelta between(ComponentManifest from, ComponentManifest to) {
+    final List<Component> changed = new ArrayList<>();
+    final List<String> removed = new ArrayList<>();
+
+    if (to.getArtifacts() != null) {
+      for (Component component : to.getArtifacts()) {
+        final Component before = from.getComponent(component.getName());
+        if (before == null || !equal(before.getVersion(), component.getVersion())) {
+          changed.add(component.copy());
+        }
+      }
+    }
+
+    if (from.getArtifacts() != null) {
+      for (Component component : from.getArtifacts()) {
+        if (to.getComponent(component.getName()) == null) {
+          removed.add(component.getName());
+        }
+      }
+    }
+
+    return new ManifestDelta(to.getName(), to.getVersion(), from.getVersion(), changed, removed);
+  }
+
+  public String getSince() {
+    return since;
+  }
+
+  public List<String> getRemoved() {
+    return removed;
+  }
+
+  public boolean isEmpty() {
+    return getArtifacts().isEmpty() && removed.isEmpty();
+  }
+
+  private static boolean equal(String a, String b) {
+    return a != null ? a.equals(b) : b == null;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    if (!super.equals(o)) {
+      return false;
+    }
+
+    ManifestDelta that = (ManifestDelta) o;
+
+    if (since != null ? !since.equals(that.since) : that.since != null) {
+      return false;
+    }
+    return removed != null ? removed.equals(that.removed) : that.removed == null;
+  }
+
+  @Override
+  public int hashCode() {
+    int result = super.hashCode();
+    result = 31 * result + (since != null ? since.hashCode() : 0);
+    result = 31 * result + (removed != null ? removed.hashCode() : 0);
+    return result;
+  }
+}
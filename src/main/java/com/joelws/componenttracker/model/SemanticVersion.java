@@ -0,0 +1,339 @@
+package com.joelws.componenttracker.model;
+/*
+Copyright 2016 Joel Whittaker-Smith
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A parsed <a href="http://semver.org/">semantic version</a>,
+ * {@code major.minor.patch[-pre-release][+build]}. Instances are immutable and parsed once per
+ * distinct string, so comparing versions never goes back to the text. Leading zeros in the
+ * major, minor and patch numbers are accepted, as manifests saved before versions were parsed
+ * may have them; the text is kept as it was, and the next bump drops them.
+ */
+public final class SemanticVersion implements Comparable<SemanticVersion> {
+
+  public enum Bump {
+    MAJOR, MINOR, PATCH
+  }
+
+  private static final int CACHE_SIZE = 4096;
+
+  private static final ConcurrentMap<String, SemanticVersion> CACHE = new ConcurrentHashMap<>();
+
+  private static final String[] NO_IDENTIFIERS = new String[0];
+
+  private final long major;
+
+  private final long minor;
+
+  private final long patch;
+
+  // Pre-release identifiers, with the value of each numeric one or -1 for alphanumeric ones.
+  private final String[] preRelease;
+
+  private final long[] numericPreRelease;
+
+  private final String build;
+
+  private final String text;
+
+  private SemanticVersion(long major, long minor, long patch, String[] preRelease, String build,
+      String text) {
+    this.major = major;
+    this.minor = minor;
+    this.patch = patch;
+    this.preRelease = preRelease;
+    this.build = build;
+    this.text = text;
+
+    this.numericPreRelease = new long[preRelease.length];
+    for (int i = 0; i < preRelease.length; i++) {
+      numericPreRelease[i] = isNumeric(preRelease[i]) ? parseNumber(preRelease[i]) : -1;
+    }
+  }
+
+  public static SemanticVersion of(long major, long minor, long patch) {
+    if (major < 0 || minor < 0 || patch < 0) {
+      throw new IllegalArgumentException("Version numbers can not be negative");
+    }
+    return new SemanticVersion(major, minor, patch, NO_IDENTIFIERS, null,
+        format(major, minor, patch));
+  }
+
+  /**
+   * Returns the parsed version, or null when the text is not a semantic version.
+   */
+  public static SemanticVersion parse(String text) {
+    if (text == null) {
+      return null;
+    }
+
+    SemanticVersion version = CACHE.get(text);
+    if (version == null) {
+      version = doParse(text);
+      if (version != null) {
+        // Versions only ever move forward, so old entries are not worth an LRU.
+        if (CACHE.size() >= CACHE_SIZE) {
+          CACHE.clear();
+        }
+        CACHE.put(text, version);
+      }
+    }
+    return version;
+  }
+
+  public long getMajor() {
+    return major;
+  }
+
+  public long getMinor() {
+    return minor;
+  }
+
+  public long getPatch() {
+    return patch;
+  }
+
+  public String getPreRelease() {
+    return preRelease.length > 0 ? String.join(".", preRelease) : null;
+  }
+
+  public String getBuild() {
+    return build;
+  }
+
+  public boolean isPreRelease() {
+    return preRelease.length > 0;
+  }
+
+  /**
+   * The next release after this one. Bumping drops the pre-release and build metadata, and
+   * bumping the patch of a pre-release gives the release it led up to.
+   */
+  public SemanticVersion bump(Bump bump) {
+    switch (bump) {
+      case MAJOR:
+        return of(major + 1, 0, 0);
+      case MINOR:
+        return of(major, minor + 1, 0);
+      default:
+        return isPreRelease() ? of(major, minor, patch) : of(major, minor, patch + 1);
+    }
+  }
+
+  /**
+   * Orders by precedence, then by build metadata and finally the text, e.g. of a version with
+   * leading zeros, so the order agrees with equals.
+   */
+  @Override
+  public int compareTo(SemanticVersion other) {
+    int result = Long.compare(major, other.major);
+    if (result == 0) {
+      result = Long.compare(minor, other.minor);
+    }
+    if (result == 0) {
+      result = Long.compare(patch, other.patch);
+    }
+    if (result == 0) {
+      result = comparePreRelease(other);
+    }
+    if (result == 0 && (build != null || other.build != null)) {
+      result = build == null ? -1 : other.build == null ? 1 : build.compareTo(other.build);
+    }
+    if (result == 0) {
+      result = text.compareTo(other.text);
+    }
+    return result;
+  }
+
+  /**
+   * Whether the versions have the same precedence, ignoring build metadata.
+   */
+  public boolean isSameRelease(SemanticVersion other) {
+    return major == other.major && minor == other.minor && patch == other.patch
+        && comparePreRelease(other) == 0;
+  }
+
+  // A release has higher precedence than its pre-releases.
+  private int comparePreRelease(SemanticVersion other) {
+    if (preRelease.length == 0 || other.preRelease.length == 0) {
+      return Boolean.compare(preRelease.length == 0, other.preRelease.length == 0);
+    }
+
+    final int common = Math.min(preRelease.length, other.preRelease.length);
+    for (int i = 0; i < common; i++) {
+      final long number = numericPreRelease[i];
+      final long otherNumber = other.numericPreRelease[i];
+      final int result;
+
+      if (number >= 0 && otherNumber >= 0) {
+        result = Long.compare(number, otherNumber);
+      } else if (number >= 0 || otherNumber >= 0) {
+        // Numeric identifiers have lower precedence than alphanumeric ones.
+        result = number >= 0 ? -1 : 1;
+      } else {
+        result = preRelease[i].compareTo(other.preRelease[i]);
+      }
+
+      if (result != 0) {
+        return result;
+      }
+    }
+    return Integer.compare(preRelease.length, other.preRelease.length);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    return text.equals(((SemanticVersion) o).text);
+  }
+
+  @Override
+  public int hashCode() {
+    return text.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return text;
+  }
+
+  private static SemanticVersion doParse(String text) {
+    final int length = text.length();
+    final long[] numbers = new long[3];
+    int position = 0;
+
+    for (int i = 0; i < 3; i++) {
+      final int start = position;
+      while (position < length && isDigit(text.charAt(position))) {
+        position++;
+      }
+      if (position == start) {
+        return null;
+      }
+      numbers[i] = parseNumber(text.substring(start, position));
+      if (numbers[i] < 0) {
+        return null;
+      }
+
+      if (i < 2) {
+        if (position >= length || text.charAt(position) != '.') {
+          return null;
+        }
+        position++;
+      }
+    }
+
+    String[] preRelease = NO_IDENTIFIERS;
+    String build = null;
+
+    if (position < length && text.charAt(position) == '-') {
+      final int end = text.indexOf('+', position);
+      preRelease = identifiers(text.substring(position + 1, end < 0 ? length : end), true);
+      if (preRelease == null) {
+        return null;
+      }
+      position = end < 0 ? length : end;
+    }
+
+    if (position < length && text.charAt(position) == '+') {
+      build = text.substring(position + 1);
+      if (identifiers(build, false) == null) {
+        return null;
+      }
+      position = length;
+    }
+
+    if (position != length) {
+      return null;
+    }
+    return new SemanticVersion(numbers[0], numbers[1], numbers[2], preRelease, build, text);
+  }
+
+  // Null when any identifier is empty, has other characters than [0-9A-Za-z-], or is a numeric
+  // pre-release identifier with a leading zero.
+  private static String[] identifiers(String text, boolean preRelease) {
+    final List<String> identifiers = new ArrayList<>();
+    int start = 0;
+
+    while (start <= text.length()) {
+      int end = text.indexOf('.', start);
+      if (end < 0) {
+        end = text.length();
+      }
+      if (end == start) {
+        return null;
+      }
+
+      for (int i = start; i < end; i++) {
+        final char c = text.charAt(i);
+        if (!isDigit(c) && !(c >= 'A' && c <= 'Z') && !(c >= 'a' && c <= 'z') && c != '-') {
+          return null;
+        }
+      }
+
+      final String identifier = text.substring(start, end);
+      if (preRelease && isNumeric(identifier)
+          && (!isNumber(identifier, 0, identifier.length()) || parseNumber(identifier) < 0)) {
+        return null;
+      }
+      identifiers.add(identifier);
+      start = end + 1;
+    }
+    return identifiers.toArray(new String[identifiers.size()]);
+  }
+
+  private static String format(long major, long minor, long patch) {
+    return new StringBuilder(24).append(major).append('.').append(minor).append('.').append(patch)
+        .toString();
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static boolean isNumeric(String identifier) {
+    for (int i = 0; i < identifier.length(); i++) {
+      if (!isDigit(identifier.charAt(i))) {
+        return false;
+      }
+    }
+    return !identifier.isEmpty();
+  }
+
+  // Digits without a leading zero, unless the number is zero itself.
+  private static boolean isNumber(String text, int start, int end) {
+    return end > start && (end - start == 1 || text.charAt(start) != '0');
+  }
+
+  // Negative when the number does not fit in a long.
+  private static long parseNumber(String digits) {
+    try {
+      return Long.parseLong(digits);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package com.joelws.componenttracker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/*
+Copyright 2016 Joel Whittaker-Smith
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/public class ClientRateLimiterTest {
+
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  @Test
+  public void limitsEachClientAfterBurst() {
+    final ClientRateLimiter limiter = new ClientRateLimiter(2, 3);
+
+    for (int i = 0; i < 3; i++) {
+      assertEquals(0, limiter.acquire("10.0.0.1", 0));
+    }
+    final long retry = limiter.acquire("10.0.0.1", 0);
+    assertTrue(retry > 0 && retry <= SECOND / 2);
+
+    // Other clients have their own bucket.
+    assertEquals(0, limiter.acquire("10.0.0.2", 0));
+
+    assertEquals(0, limiter.acquire("10.0.0.1", SECOND / 2));
+    assertTrue(limiter.acquire("10.0.0.1", SECOND / 2) > 0);
+  }
+
+  @Test
+  public void forgetsLeastRecentlySeenClient() {
+    final ClientRateLimiter limiter = new ClientRateLimiter(1, 1, 2);
+
+    assertEquals(0, limiter.acquire("10.0.0.1", 0));
+    assertEquals(0, limiter.acquire("10.0.0.2", 0));
+    assertTrue(limiter.acquire("10.0.0.1", 0) > 0);
+
+    // The third client takes the place of the second, which was seen longest ago.
+    assertEquals(0, limiter.acquire("10.0.0.3", 0));
+    assertEquals(2, limiter.size());
+    assertTrue(limiter.acquire("10.0.0.1", 0) > 0);
+    assertEquals(0, limiter.acquire("10.0.0.2", 0));
+    assertEquals(2, limiter.size());
+  }
+
+  @Test
+  public void unlimitedWhenRateIsZero() {
+    final ClientRateLimiter limiter = new ClientRateLimiter(0, 1);
+
+    for (int i = 0; i < 100; i++) {
+      assertEquals(0, limiter.acquire("10.0.0.1", 0));
+    }
+  }
+}
@@ -0,0 +1,100 @@
+package com.joelws.componenttracker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.joelws.componenttracker.ComponentCatalogue.CachedListBoxModel;
+import com.joelws.componenttracker.model.Component;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+/*
+Copyright 2016 Joel Whittaker-Smith
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/public class ComponentCatalogueTest {
+
+  @Test
+  public void itemsKeepConfiguredOrder() {
+    final ComponentCatalogue catalogue = catalogue("zeta", "alpha", "Beta");
+
+    assertEquals(3, catalogue.getItems().size());
+    assertEquals("zeta", catalogue.getItems().get(0).name);
+    assertEquals("alpha", catalogue.getItems().get(1).name);
+    assertEquals("Beta", catalogue.getItems().get(2).name);
+  }
+
+  @Test
+  public void searchMatchesPrefixIgnoringCase() {
+    final ComponentCatalogue catalogue =
+        catalogue("artifact-two", "Artifact-One", "other", "art", "artifact-one-extra");
+
+    assertEquals(Arrays.asList("Artifact-One", "artifact-one-extra"),
+        catalogue.search("ARTIFACT-O", 10));
+    assertEquals(Arrays.asList("art", "Artifact-One", "artifact-one-extra", "artifact-two"),
+        catalogue.search("art", 10));
+    assertEquals(Arrays.asList("art", "Artifact-One"), catalogue.search("art", 2));
+    assertTrue(catalogue.search("missing", 10).isEmpty());
+    assertEquals(5, catalogue.search("", 10).size());
+  }
+
+  @Test
+  public void searchFindsDuplicateNames() {
+    assertEquals(Arrays.asList("dup", "dup", "dup"), catalogue("dup", "dup", "dup")
+        .search("dup", 10));
+  }
+
+  @Test
+  public void searchScalesToLargeLists() {
+    final List<Component> components = new ArrayList<>();
+    for (int i = 0; i < 20000; i++) {
+      components.add(new Component(String.format("component-%05d", i), "1.0"));
+    }
+    final ComponentCatalogue catalogue = ComponentCatalogue.of(components);
+
+    assertEquals(Arrays.asList("component-12340", "component-12341"),
+        catalogue.search("component-1234", 2));
+    assertEquals(10, catalogue.search("component-1999", 50).size());
+  }
+
+  @Test
+  public void etagFollowsContent() {
+    final String etag = etag(catalogue("one", "two"));
+
+    assertEquals(etag, etag(catalogue("one", "two")));
+    assertFalse(etag.equals(etag(catalogue("two", "one"))));
+    assertFalse(etag.equals(etag(catalogue("one"))));
+    assertTrue(etag.startsWith("\"") && etag.endsWith("\""));
+  }
+
+  @Test
+  public void missingListIsEmpty() {
+    assertEquals(0, ComponentCatalogue.of(null).getItems().size());
+    assertTrue(ComponentCatalogue.of(null).search("a", 10).isEmpty());
+  }
+
+  private static ComponentCatalogue catalogue(String... names) {
+    final List<Component> components = new ArrayList<>();
+    for (String name : names) {
+      components.add(new Component(name, "1.0"));
+    }
+    return ComponentCatalogue.of(components);
+  }
+
+  private static String etag(ComponentCatalogue catalogue) {
+    return ((CachedListBoxModel) catalogue.getItems()).getETag();
+  }
+}
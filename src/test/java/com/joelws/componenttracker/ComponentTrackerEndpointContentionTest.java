@@ -0,0 +1,129 @@
+package com.joelws.componenttracker;
+
+import static com.joelws.componenttracker.ManifestFixtures.NAME;
+import static com.joelws.componenttracker.ManifestFixtures.newManifest;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.joelws.componenttracker.model.ComponentManifest;
+import hudson.XmlFile;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestExtension;
+
+/*
+Copyright 2016 Joel Whittaker-Smith
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/public class ComponentTrackerEndpointContentionTest {
+
+  private static final int WRITERS = 4;
+
+  private static final int READERS = 4;
+
+  private static final int UPDATES_PER_WRITER = 50;
+
+  private static final int READS_PER_READER = 20;
+
+  @Rule
+  public JenkinsRule j = new JenkinsRule();
+
+  @Test
+  public void requestsNeverWaitForAWriteInProgress() throws Exception {
+    final ComponentTrackerEndpoint componentTrackerEndpoint = ComponentTrackerEndpoint
+        .getInstance();
+    componentTrackerEndpoint.setLatestManifest(newManifest("1.0.0", "1.0"));
+    final ExecutorService executor = Executors.newFixedThreadPool(1 + WRITERS + READERS);
+
+    try {
+      // The next save stalls part way, as on a slow disk, until the test lets it finish.
+      StallingListener.armed.set(true);
+      executor.submit(() -> componentTrackerEndpoint.updateComponentInManifest(
+          "artifact one", "2.0"));
+      assertTrue(StallingListener.stalled.await(30, TimeUnit.SECONDS));
+
+      final List<Future<?>> requests = new ArrayList<>();
+      for (int i = 0; i < WRITERS; i++) {
+        final String version = "3." + i;
+        requests.add(executor.submit(() -> {
+          for (int update = 0; update < UPDATES_PER_WRITER; update++) {
+            componentTrackerEndpoint.updateComponentInManifest("artifact two", version);
+          }
+          return null;
+        }));
+      }
+      for (int i = 0; i < READERS; i++) {
+        requests.add(executor.submit(() -> {
+          final JenkinsRule.WebClient webClient = j.createWebClient();
+          for (int read = 0; read < READS_PER_READER; read++) {
+            assertEquals(NAME, get(webClient).getName());
+          }
+          return null;
+        }));
+      }
+
+      // With the save still stalled, every GET and update has to complete.
+      for (Future<?> request : requests) {
+        request.get(60, TimeUnit.SECONDS);
+      }
+      assertEquals(1, StallingListener.release.getCount());
+
+      final ComponentManifest latest = get(j.createWebClient());
+      assertEquals("1.0." + (1 + WRITERS * UPDATES_PER_WRITER), latest.getVersion());
+      assertEquals("2.0", latest.getComponent("artifact one").getVersion());
+    } finally {
+      StallingListener.release.countDown();
+      executor.shutdown();
+    }
+  }
+
+  private static ComponentManifest get(JenkinsRule.WebClient webClient) throws Exception {
+    final String json = webClient.goTo("component-tracker/" + NAME, "application/json")
+        .getWebResponse().getContentAsString();
+    return ManifestJson.GSON.fromJson(json, ComponentManifest.class);
+  }
+
+  @TestExtension("requestsNeverWaitForAWriteInProgress")
+  public static class StallingListener extends SaveableListener {
+
+    static final AtomicBoolean armed = new AtomicBoolean();
+
+    static final CountDownLatch stalled = new CountDownLatch(1);
+
+    static final CountDownLatch release = new CountDownLatch(1);
+
+    @Override
+    public void onChange(Saveable o, XmlFile file) {
+      if (armed.compareAndSet(true, false)) {
+        stalled.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
+
+}
@@ -1,11 +1,16 @@
 package com.joelws.componenttracker;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 import com.joelws.componenttracker.model.Component;
 import com.joelws.componenttracker.model.ComponentManifest;
+import com.joelws.componenttracker.model.SemanticVersion.Bump;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -83,7 +88,19 @@ limitations under the License.
   @Test
   public void updateComponentInManifestNoChange() throws Exception {
     //invalid manifest version
-    componentTrackerEndpoint.getLatestManifest().setVersion("1.0");
+    componentTrackerEndpoint.setLatestManifest(new ComponentManifest(
+        "mock-manifest",
+        "1.0",
+        Arrays.asList(
+            new Component(
+                "artifact one",
+                "1.0"
+            ),
+            new Component(
+                "artifact two",
+                "1.0"
+            ))
+    ));
 
     // Calling updateComponentInManifest should do nothing as invalid manifest version
 
@@ -110,4 +127,69 @@ limitations under the License.
 
   }
 
+  @Test
+  public void updateComponentsInManifest() throws Exception {
+    Map<String, String> versions = new HashMap<>();
+    versions.put("artifact one", "2.0");
+    versions.put("artifact two", "3.0");
+
+    componentTrackerEndpoint.updateComponentsInManifest(versions);
+
+    ComponentManifest expected = new ComponentManifest(
+        "mock-manifest",
+        "1.0.1",
+        Arrays.asList(
+            new Component(
+                "artifact one",
+                "2.0"
+            ),
+            new Component(
+                "artifact two",
+                "3.0"
+            ))
+    );
+
+    assertEquals(expected, componentTrackerEndpoint.getLatestManifest());
+
+  }
+
+  @Test
+  public void updateComponentsInManifestUnknownComponent() throws Exception {
+    Map<String, String> versions = new HashMap<>();
+    versions.put("artifact one", "2.0");
+    versions.put("artifact three", "1.0");
+
+    // Nothing is applied when any of the components is not in the manifest
+
+    assertNull(componentTrackerEndpoint.updateComponentsInManifest(versions));
+    assertEquals("1.0.0", componentTrackerEndpoint.getLatestManifest().getVersion());
+
+  }
+
+  @Test
+  public void updateComponentsInManifestWithBump() throws Exception {
+    final TrackedManifest trackedManifest = componentTrackerEndpoint.getDefaultManifest();
+
+    assertEquals("1.1.0", trackedManifest.updateComponentsInManifest(
+        Collections.singletonMap("artifact one", "2.0"), Bump.MINOR).getVersion());
+    assertEquals("2.0.0", trackedManifest.updateComponentsInManifest(
+        Collections.singletonMap("artifact two", "2.0"), Bump.MAJOR).getVersion());
+    assertEquals("2.0.1", trackedManifest.updateComponentsInManifest(
+        Collections.singletonMap("artifact two", "2.1"), Bump.PATCH).getVersion());
+  }
+
+  @Test
+  public void findVersionsOfComponent() throws Exception {
+    final TrackedManifest trackedManifest = componentTrackerEndpoint.getDefaultManifest();
+
+    trackedManifest.updateComponentsInManifest(Collections.singletonMap("artifact one", "2.0"));
+    trackedManifest.updateComponentsInManifest(Collections.singletonMap("artifact two", "2.0"));
+    trackedManifest.updateComponentsInManifest(Collections.singletonMap("artifact one", "3.0"));
+
+    assertEquals(Arrays.asList("1.0.1", "1.0.2"),
+        trackedManifest.findVersions("artifact one", "2.0"));
+    assertEquals(Arrays.asList("1.0.0", "1.0.1"),
+        trackedManifest.findVersions("artifact two", "1.0"));
+  }
+
 }
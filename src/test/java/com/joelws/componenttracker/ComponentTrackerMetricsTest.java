@@ -0,0 +1,73 @@
+package com.joelws.componenttracker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.joelws.componenttracker.ComponentTrackerMetrics.Histogram;
+import java.io.StringWriter;
+import java.util.Collections;
+import org.junit.Test;
+
+/*
+Copyright 2016 Joel Whittaker-Smith
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/public class ComponentTrackerMetricsTest {
+
+  @Test
+  public void histogramQuantilesAreWithinABucket() throws Exception {
+    final Histogram histogram = new Histogram();
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i);
+    }
+
+    assertEquals(1000, histogram.getCount());
+    assertEquals(500500, histogram.getSum());
+    assertEquals(1000, histogram.getMax());
+
+    final long median = histogram.getQuantile(0.5);
+    assertTrue("median " + median, median >= 500 && median < 1024);
+    assertEquals(1000, histogram.getQuantile(1.0));
+    assertEquals(0, new Histogram().getQuantile(0.5));
+  }
+
+  @Test
+  public void writesCountersHistogramsAndGauges() throws Exception {
+    final ComponentTrackerMetrics metrics = new ComponentTrackerMetrics();
+    final String failures = ComponentTrackerMetrics
+        .labelled("deploy.failures", "url", "http://nexus");
+
+    metrics.increment(failures);
+    metrics.add(failures, 2);
+    metrics.record("save.bytes", 4096);
+
+    assertEquals(3, metrics.getCount(failures));
+    assertNull(metrics.getHistogram("save.nanos"));
+
+    final StringWriter writer = new StringWriter();
+    metrics.write(writer, Collections.singletonMap("deployment.queue.depth", 7));
+
+    final JsonObject json = new JsonParser().parse(writer.toString()).getAsJsonObject();
+    assertEquals(7, json.getAsJsonObject("gauges").get("deployment.queue.depth").getAsInt());
+    assertEquals(3, json.getAsJsonObject("counters").get(failures).getAsLong());
+
+    final JsonObject bytes = json.getAsJsonObject("histograms").getAsJsonObject("save.bytes");
+    assertEquals(1, bytes.get("count").getAsLong());
+    assertEquals(4096, bytes.get("max").getAsLong());
+    assertEquals(1, bytes.getAsJsonObject("buckets").get("8191").getAsLong());
+  }
+
+}
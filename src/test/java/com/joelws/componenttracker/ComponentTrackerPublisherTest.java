@@ -0,0 +1,91 @@
+package com.joelws.componenttracker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.joelws.componenttracker.model.Component;
+import com.joelws.componenttracker.model.ComponentManifest;
+import hudson.model.TaskListener;
+import hudson.util.StreamTaskListener;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.Test;
+
+/*
+Copyright 2016 Joel Whittaker-Smith
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/public class ComponentTrackerPublisherTest {
+
+  private final ComponentManifest manifest = new ComponentManifest(
+      "mock-manifest",
+      "1.0.0",
+      Arrays.asList(
+          new Component("artifact-one", "1.0"),
+          new Component("artifact-two", "1.0"),
+          new Component("artifact-three", "1.0")));
+
+  private final Map<String, String> envVars = new HashMap<>();
+
+  private final ByteArrayOutputStream log = new ByteArrayOutputStream();
+
+  private final TaskListener listener = new StreamTaskListener(log, StandardCharsets.UTF_8);
+
+  {
+    envVars.put("artifact-one", "2.0");
+    envVars.put("artifact-two", "3.0");
+    envVars.put("artifact-three", "4.0");
+    envVars.put("artifact-unknown", "5.0");
+    envVars.put("BUILD_NUMBER", "42");
+  }
+
+  @Test
+  public void namedComponentsWithAVersion() throws Exception {
+    final ComponentTrackerPublisher publisher = new ComponentTrackerPublisher("artifact-one");
+    publisher.setComponents("artifact-two, missing\tartifact-three");
+
+    final Map<String, String> expected = new LinkedHashMap<>();
+    expected.put("artifact-one", "2.0");
+    expected.put("artifact-two", "3.0");
+    expected.put("artifact-three", "4.0");
+
+    assertEquals(expected, publisher.getComponentVersions(envVars, manifest, listener));
+  }
+
+  @Test
+  public void patternOnlyMatchesManifestComponents() throws Exception {
+    final ComponentTrackerPublisher publisher = new ComponentTrackerPublisher(null);
+    publisher.setComponentPattern("artifact-t.*");
+
+    final Map<String, String> expected = new HashMap<>();
+    expected.put("artifact-two", "3.0");
+    expected.put("artifact-three", "4.0");
+
+    assertEquals(expected, publisher.getComponentVersions(envVars, manifest, listener));
+  }
+
+  @Test
+  public void invalidPatternIsReportedToTheBuild() throws Exception {
+    final ComponentTrackerPublisher publisher = new ComponentTrackerPublisher("artifact-one");
+    publisher.setComponentPattern("artifact-(");
+
+    assertNull(publisher.getComponentVersions(envVars, manifest, listener));
+    assertTrue(new String(log.toByteArray(), StandardCharsets.UTF_8).contains("artifact-("));
+  }
+
+}
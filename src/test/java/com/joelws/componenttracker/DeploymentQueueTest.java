@@ -0,0 +1,83 @@
+package com.joelws.componenttracker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.joelws.componenttracker.model.Component;
+import com.joelws.componenttracker.model.ComponentManifest;
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+/*
+Copyright 2016 Joel Whittaker-Smith
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/public class DeploymentQueueTest {
+
+  @Rule
+  public JenkinsRule j = new JenkinsRule();
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void submitCompletesOnceDeployed() throws Exception {
+    final File repository = folder.newFolder();
+    final ComponentTrackerPublisher.DescriptorImpl descriptor = j.jenkins
+        .getDescriptorByType(ComponentTrackerPublisher.DescriptorImpl.class);
+    descriptor.setGroupId("com.joelws.test");
+    descriptor.setTargets(Collections.singletonList(
+        new DeploymentTarget(repository.toURI().toString(), null, null, null)));
+
+    final ComponentManifest componentManifest = new ComponentManifest(
+        "queued-manifest",
+        "1.0.0",
+        Collections.singletonList(new Component("artifact one", "1.0")));
+
+    DeploymentQueue.getInstance().submit(componentManifest).get(30, TimeUnit.SECONDS);
+
+    assertTrue(new File(repository, "content/repositories/releases/com/joelws/test/"
+        + "queued-manifest/1.0.0/queued-manifest-1.0.0.json").isFile());
+  }
+
+  @Test
+  public void retriesAfterAnError() throws Exception {
+    final AtomicInteger attempts = new AtomicInteger();
+    final DeploymentQueue queue = new DeploymentQueue() {
+      @Override
+      void deploy(List<ComponentManifest> componentManifests) {
+        if (attempts.getAndIncrement() == 0) {
+          throw new NoClassDefFoundError("Simulated");
+        }
+      }
+    };
+
+    final ComponentManifest componentManifest = new ComponentManifest(
+        "erroring-manifest",
+        "1.0.0",
+        Collections.singletonList(new Component("artifact one", "1.0")));
+
+    queue.submit(componentManifest).get(30, TimeUnit.SECONDS);
+
+    assertEquals(2, attempts.get());
+    assertEquals(0, queue.getDepth());
+  }
+
+}
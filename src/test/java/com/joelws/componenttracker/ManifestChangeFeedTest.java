@@ -0,0 +1,198 @@
+package com.joelws.componenttracker;
+
+import static com.joelws.componenttracker.ManifestFixtures.newManifest;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.joelws.componenttracker.ManifestChangeFeed.Batch;
+import com.joelws.componenttracker.ManifestChangeFeed.Change;
+import java.io.StringWriter;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+/*
+Copyright 2016 Joel Whittaker-Smith
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/public class ManifestChangeFeedTest {
+
+  @Test
+  public void resumesFromToken() {
+    final ManifestChangeFeed feed = new ManifestChangeFeed(16, 1);
+    final Batch start = feed.poll(null, null);
+    assertTrue(start.isEmpty());
+
+    feed.publish(newManifest("one", "1.0.1", 0));
+    feed.publish(newManifest("two", "2.0.0", 0));
+
+    final Batch first = feed.poll(start.getToken(), null);
+    assertEquals(2, first.getChanges().size());
+    assertEquals("one", first.getChanges().get(0).getManifest());
+    assertEquals("2.0.0", first.getChanges().get(1).getVersion());
+    assertFalse(first.isSkipped());
+
+    feed.publish(newManifest("one", "1.0.2", 0));
+
+    final Batch second = feed.poll(first.getToken(), null);
+    assertEquals(1, second.getChanges().size());
+    assertEquals("1.0.2", second.getChanges().get(0).getVersion());
+    assertTrue(feed.poll(second.getToken(), null).isEmpty());
+  }
+
+  @Test
+  public void filtersByManifest() {
+    final ManifestChangeFeed feed = new ManifestChangeFeed(16, 1);
+    final String token = feed.poll(null, null).getToken();
+
+    feed.publish(newManifest("one", "1.0.1", 0));
+    feed.publish(newManifest("two", "2.0.0", 0));
+    feed.publish(newManifest("one", "1.0.2", 0));
+
+    final Batch batch = feed.poll(token, "one");
+    assertEquals(2, batch.getChanges().size());
+    for (Change change : batch.getChanges()) {
+      assertEquals("one", change.getManifest());
+    }
+    assertTrue(feed.poll(batch.getToken(), null).isEmpty());
+  }
+
+  @Test
+  public void slowSubscriberSkipsAhead() {
+    final ManifestChangeFeed feed = new ManifestChangeFeed(4, 1);
+    final String token = feed.poll(null, null).getToken();
+
+    for (int i = 1; i <= 10; i++) {
+      feed.publish(newManifest("one", "1.0." + i, 0));
+    }
+
+    final Batch batch = feed.poll(token, null);
+    assertTrue(batch.isSkipped());
+    assertEquals(4, batch.getChanges().size());
+    assertEquals("1.0.7", batch.getChanges().get(0).getVersion());
+    assertEquals("1.0.10", batch.getChanges().get(3).getVersion());
+  }
+
+  @Test
+  public void tokenFromAnotherFeedStartsOver() {
+    final ManifestChangeFeed feed = new ManifestChangeFeed(16, 1);
+    feed.publish(newManifest("one", "1.0.1", 0));
+
+    final Batch batch = feed.poll("unknown.42", null);
+    assertTrue(batch.isSkipped());
+    assertEquals(1, batch.getChanges().size());
+    assertFalse(feed.poll(batch.getToken(), null).isSkipped());
+  }
+
+  @Test
+  public void awaitWakesOnPublish() throws Exception {
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    final AtomicInteger waits = new AtomicInteger();
+    final ManifestChangeFeed feed = new ManifestChangeFeed(16, 1) {
+      @Override
+      void awaiting() {
+        // Blocks on the feed until the caller has started waiting.
+        if (waits.getAndIncrement() == 0) {
+          executor.submit(() -> publish(newManifest("one", "1.0.1", 0)));
+        }
+      }
+    };
+
+    try {
+      final Batch batch = feed.await(feed.poll(null, null), null, TimeUnit.HOURS.toMillis(1));
+      assertEquals(1, batch.getChanges().size());
+      assertEquals(1, waits.get());
+      assertEquals(0, feed.getWaiting());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void awaitIsBoundedByTimeoutAndThreads() throws Exception {
+    final ManifestChangeFeed feed = new ManifestChangeFeed(16, 0);
+    final Batch start = feed.poll(null, null);
+
+    // No thread may wait, so the empty batch comes straight back.
+    assertTrue(feed.await(start, null, 30000).isEmpty());
+
+    final ManifestChangeFeed bounded = new ManifestChangeFeed(16, 1);
+    final Batch timedOut = bounded.await(bounded.poll(null, null), null, 50);
+    assertTrue(timedOut.isEmpty());
+    assertEquals(0, bounded.getWaiting());
+  }
+
+  @Test
+  public void listenersRunOnceAndNeverMissAChange() throws Exception {
+    final ManifestChangeFeed feed = new ManifestChangeFeed(16, 1);
+    final Batch start = feed.poll(null, null);
+    final AtomicInteger calls = new AtomicInteger();
+    final CountDownLatch woken = new CountDownLatch(1);
+
+    assertTrue(feed.listen(start, null, () -> {
+      calls.incrementAndGet();
+      woken.countDown();
+    }));
+    feed.publish(newManifest("one", "1.0.1", 0));
+    feed.publish(newManifest("one", "1.0.2", 0));
+
+    assertTrue(woken.await(1, TimeUnit.SECONDS));
+    assertEquals(1, calls.get());
+
+    // A change published since the batch was polled must be picked up without waiting.
+    assertFalse(feed.listen(start, null, calls::incrementAndGet));
+    assertEquals(0, feed.getWaiting());
+  }
+
+  @Test
+  public void listenersOnlyWakeForTheirManifest() throws Exception {
+    final ManifestChangeFeed feed = new ManifestChangeFeed(16, 1);
+    final AtomicInteger calls = new AtomicInteger();
+
+    assertTrue(feed.listen(feed.poll(null, "one"), "one", calls::incrementAndGet));
+    feed.publish(newManifest("two", "1.0.1", 0));
+    assertEquals(0, calls.get());
+    assertEquals(1, feed.getWaiting());
+
+    feed.publish(newManifest("one", "1.0.1", 0));
+    assertEquals(1, calls.get());
+    assertEquals(0, feed.getWaiting());
+  }
+
+  @Test
+  public void writesServerSentEvents() throws Exception {
+    final ManifestChangeFeed feed = new ManifestChangeFeed(16, 1);
+    final String token = feed.poll(null, null).getToken();
+    feed.publish(newManifest("one", "1.0.1", 0));
+
+    final Batch batch = feed.poll(token, null);
+    final StringWriter events = new StringWriter();
+    batch.writeEvents(events);
+
+    final String expectedEvent = "id: " + batch.getChanges().get(0).getToken()
+        + "\nevent: manifest\ndata: {\"token\":\"" + batch.getChanges().get(0).getToken()
+        + "\",\"manifest\":\"one\",\"version\":\"1.0.1\"";
+    assertTrue(events.toString(), events.toString().contains(expectedEvent));
+    assertTrue(events.toString(), events.toString().endsWith("id: " + batch.getToken() + "\n\n"));
+
+    final StringWriter json = new StringWriter();
+    batch.writeJson(json);
+    assertTrue(json.toString(), json.toString().startsWith(
+        "{\"token\":\"" + batch.getToken() + "\",\"skipped\":false,\"changes\":[{"));
+  }
+
+}
@@ -0,0 +1,72 @@
+package com.joelws.componenttracker;
+
+import com.joelws.componenttracker.model.Component;
+import com.joelws.componenttracker.model.ComponentManifest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+Copyright 2016 Joel Whittaker-Smith
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+/**
+ * Manifests shared by the tests and benchmarks.
+ */
+public final class ManifestFixtures {
+
+  public static final String NAME = "mock-manifest";
+
+  private ManifestFixtures() {
+  }
+
+  /**
+   * Manifest 1.0.0 with the given number of components, component i at version 1.0.i.
+   */
+  public static ComponentManifest newManifest(int components) {
+    return newManifest(NAME, "1.0.0", components);
+  }
+
+  public static ComponentManifest newManifest(String name, String version, int components) {
+    List<Component> componentList = new ArrayList<>(components);
+    for (int i = 0; i < components; i++) {
+      componentList.add(new Component(componentName(i), "1.0." + i));
+    }
+    return new ComponentManifest(name, version, componentList);
+  }
+
+  /**
+   * Manifest with artifact one at the given version and artifact two at 1.0.
+   */
+  public static ComponentManifest newManifest(String version, String artifactOneVersion) {
+    return new ComponentManifest(
+        NAME,
+        version,
+        Arrays.asList(
+            new Component(
+                "artifact one",
+                artifactOneVersion
+            ),
+            new Component(
+                "artifact two",
+                "1.0"
+            ))
+    );
+  }
+
+  public static String componentName(int i) {
+    return "artifact " + i;
+  }
+
+}
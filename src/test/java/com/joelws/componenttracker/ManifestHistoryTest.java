@@ -0,0 +1,253 @@
+package com.joelws.componenttracker;
+
+import static com.joelws.componenttracker.ManifestFixtures.newManifest;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.joelws.componenttracker.model.Component;
+import com.joelws.componenttracker.model.ComponentManifest;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/*
+Copyright 2016 Joel Whittaker-Smith
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/public class ManifestHistoryTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void pointInTimeLookupAfterReopen() throws Exception {
+    final File directory = folder.newFolder();
+
+    ManifestHistory history = new ManifestHistory(directory);
+    history.append(newManifest("1.0.0", "1.0"));
+    history.append(newManifest("1.0.1", "2.0"));
+    history.append(newManifest("1.0.2", "3.0"));
+    history.close();
+
+    history = new ManifestHistory(directory);
+
+    assertEquals(newManifest("1.0.2", "3.0"), history.getHead());
+    assertEquals(newManifest("1.0.1", "2.0"), history.getManifest("1.0.1"));
+    assertEquals(newManifest("1.0.0", "1.0"), history.getManifest("1.0.0"));
+    assertNull(history.getManifest("0.9.9"));
+
+    history.append(newManifest("1.0.3", "4.0"));
+    assertEquals(newManifest("1.0.3", "4.0"), history.getManifest("1.0.3"));
+    history.close();
+  }
+
+  @Test
+  public void findsVersionsInIndexAndOnDisk() throws Exception {
+    final File directory = folder.newFolder();
+
+    // Only the three newest entries fit in the index, older ones are scanned from disk.
+    ManifestHistory history = new ManifestHistory(directory, 3);
+    history.append(newManifest("1.0.0", "1.0"));
+    history.append(newManifest("1.0.1", "2.0"));
+    history.append(newManifest("1.0.2", "2.0"));
+    history.append(newManifest("1.0.3", "1.0"));
+    history.append(newManifest("1.0.4", "3.0"));
+    history.append(newManifest("1.0.5", "2.0"));
+
+    assertEquals(Arrays.asList("1.0.1", "1.0.2", "1.0.5"),
+        history.findVersions("artifact one", "2.0"));
+
+    // Appends after the first lookup update the index in place.
+    history.append(newManifest("1.0.6", "2.0"));
+    history.append(newManifest("1.0.7", "1.0"));
+    assertEquals(Arrays.asList("1.0.1", "1.0.2", "1.0.5", "1.0.6"),
+        history.findVersions("artifact one", "2.0"));
+    assertEquals(Arrays.asList("1.0.0", "1.0.3", "1.0.7"),
+        history.findVersions("artifact one", "1.0"));
+    assertEquals(Collections.emptyList(), history.findVersions("artifact one", "9.0"));
+    history.close();
+
+    history = new ManifestHistory(directory, 3);
+    assertEquals(Arrays.asList("1.0.0", "1.0.1", "1.0.2", "1.0.3", "1.0.4", "1.0.5", "1.0.6",
+        "1.0.7"), history.findVersions("artifact two", "1.0"));
+    history.close();
+  }
+
+  @Test
+  public void tornEntryIsTruncatedOnRecovery() throws Exception {
+    final File directory = folder.newFolder();
+
+    ManifestHistory history = new ManifestHistory(directory);
+    history.append(newManifest("1.0.0", "1.0"));
+    history.append(newManifest("1.0.1", "2.0"));
+    history.close();
+
+    // A crash part way through writing the next entry.
+    final File segment = directory.listFiles()[0];
+    Files.write(segment.toPath(), "{\"sequence\":2,\"timest".getBytes(StandardCharsets.UTF_8),
+        StandardOpenOption.APPEND);
+
+    history = new ManifestHistory(directory);
+    assertEquals(newManifest("1.0.1", "2.0"), history.getHead());
+    history.append(newManifest("1.0.2", "3.0"));
+    history.append(newManifest("1.0.3", "4.0"));
+    history.close();
+
+    history = new ManifestHistory(directory);
+    assertEquals(newManifest("1.0.3", "4.0"), history.getHead());
+    assertEquals(newManifest("1.0.0", "1.0"), history.getManifest("1.0.0"));
+    assertEquals(newManifest("1.0.1", "2.0"), history.getManifest("1.0.1"));
+    assertEquals(newManifest("1.0.2", "3.0"), history.getManifest("1.0.2"));
+    history.close();
+  }
+
+  @Test
+  public void strayFilesAreIgnored() throws Exception {
+    final File directory = folder.newFolder();
+    Files.write(new File(directory, "segment-foo.log").toPath(), new byte[0]);
+
+    final ManifestHistory history = new ManifestHistory(directory);
+    history.append(newManifest("1.0.0", "1.0"));
+    assertEquals(newManifest("1.0.0", "1.0"), history.getManifest("1.0.0"));
+    history.close();
+  }
+
+  @Test
+  public void catchesUpWithAnotherWriter() throws Exception {
+    final File directory = folder.newFolder();
+
+    final ManifestHistory active = new ManifestHistory(directory, 10, 2);
+    active.append(newManifest("1.0.0", "1.0"));
+    final ManifestHistory standby = new ManifestHistory(directory, 10, 2);
+    assertEquals(Arrays.asList("1.0.0"), standby.findVersions("artifact one", "1.0"));
+
+    // The second entry ends the first segment and the third starts a new one.
+    active.append(newManifest("1.0.1", "2.0"));
+    active.append(newManifest("1.0.2", "2.0"));
+    standby.catchUp();
+    assertEquals(newManifest("1.0.2", "2.0"), standby.getHead());
+    assertEquals(Arrays.asList("1.0.1", "1.0.2"), standby.findVersions("artifact one", "2.0"));
+    assertEquals(newManifest("1.0.1", "2.0"), standby.getManifest("1.0.1"));
+
+    standby.append(newManifest("1.0.3", "3.0"));
+    active.catchUp();
+    assertEquals(newManifest("1.0.3", "3.0"), active.getHead());
+    assertEquals(newManifest("1.0.3", "3.0"), active.getManifest("1.0.3"));
+    assertEquals(newManifest("1.0.0", "1.0"), active.getManifest("1.0.0"));
+
+    active.close();
+    standby.close();
+  }
+
+  @Test
+  public void compactionDropsSupersededEntries() throws Exception {
+    final File directory = folder.newFolder();
+
+    ManifestHistory history = new ManifestHistory(directory, 10, 2);
+    history.append(newManifest("1.0.0", "1.0"));
+    history.append(newManifest("1.0.1", "2.0"));
+    // Recorded again, e.g. after a restore, which leaves the first entry unreachable.
+    history.append(newManifest("1.0.1", "3.0"));
+    history.append(newManifest("1.0.2", "4.0"));
+    history.append(newManifest("1.0.3", "5.0"));
+    assertEquals(Arrays.asList("1.0.1"), history.findVersions("artifact one", "2.0"));
+
+    assertEquals(1, history.compact());
+    assertEquals(0, history.compact());
+    assertEquals(3, history.getSegmentCount());
+    assertEquals(Collections.emptyList(), history.findVersions("artifact one", "2.0"));
+    history.close();
+
+    history = new ManifestHistory(directory, 10, 2);
+    assertEquals(newManifest("1.0.0", "1.0"), history.getManifest("1.0.0"));
+    assertEquals(newManifest("1.0.1", "3.0"), history.getManifest("1.0.1"));
+    assertEquals(newManifest("1.0.2", "4.0"), history.getManifest("1.0.2"));
+    assertEquals(newManifest("1.0.3", "5.0"), history.getManifest("1.0.3"));
+    assertEquals(Arrays.asList("1.0.0", "1.0.1", "1.0.2", "1.0.3"),
+        history.findVersions("artifact two", "1.0"));
+    history.close();
+  }
+
+  @Test
+  public void compactionMergesSmallSegments() throws Exception {
+    final File directory = folder.newFolder();
+
+    // Appending after a close starts a new segment.
+    final ManifestHistory history = new ManifestHistory(directory);
+    history.append(newManifest("1.0.0", "1.0"));
+    history.close();
+    history.append(newManifest("1.0.1", "2.0"));
+    history.close();
+    history.append(newManifest("1.0.2", "3.0"));
+    assertEquals(3, history.getSegmentCount());
+
+    assertEquals(0, history.compact());
+    assertEquals(2, history.getSegmentCount());
+    assertEquals(newManifest("1.0.0", "1.0"), history.getManifest("1.0.0"));
+    assertEquals(newManifest("1.0.1", "2.0"), history.getManifest("1.0.1"));
+    assertEquals(newManifest("1.0.2", "3.0"), history.getManifest("1.0.2"));
+    history.close();
+  }
+
+  @Test
+  public void closedSegmentsKeepAnIndex() throws Exception {
+    final File directory = folder.newFolder();
+
+    ManifestHistory history = new ManifestHistory(directory, 10, 2);
+    history.append(newManifest("1.0.0", "1.0"));
+    history.append(newManifest("1.0.1", "2.0"));
+    history.append(newManifest("1.0.2", "3.0"));
+    history.close();
+
+    final File segment = new File(directory, "segment-0000000000000000.log");
+    final File index = new File(directory, "segment-0000000000000000.log.index");
+    assertTrue(index.isFile());
+    assertFalse(new File(directory, "segment-0000000000000002.log.index").exists());
+
+    // An index older than its segment is rebuilt rather than trusted.
+    Files.write(index.toPath(), "{\"entries\":1,\"versions\":{\"9.9.9\":0}}"
+        .getBytes(StandardCharsets.UTF_8));
+    assertTrue(index.setLastModified(segment.lastModified() - 10000));
+
+    history = new ManifestHistory(directory, 10, 2);
+    assertNull(history.getManifest("9.9.9"));
+    assertEquals(newManifest("1.0.1", "2.0"), history.getManifest("1.0.1"));
+    history.close();
+  }
+
+  @Test
+  public void expiryIsOptIn() throws Exception {
+    final ManifestHistory history = new ManifestHistory(folder.newFolder());
+    history.append(newManifest("1.0.0", "1.0"));
+    history.append(
+        new ComponentManifest("other-manifest", "1.0.1", Collections.<Component>emptyList()));
+    history.append(newManifest("1.0.2", "3.0"));
+
+    history.expire();
+    assertEquals(3, history.getSegmentCount());
+    assertEquals(newManifest("1.0.0", "1.0"), history.getManifest("1.0.0"));
+
+    history.expire(1);
+    assertEquals(1, history.getSegmentCount());
+    assertNull(history.getManifest("1.0.0"));
+    history.close();
+  }
+}
@@ -0,0 +1,112 @@
+package com.joelws.componenttracker;
+
+import static com.joelws.componenttracker.ManifestFixtures.newManifest;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.google.gson.Gson;
+import com.joelws.componenttracker.model.ComponentManifest;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import org.junit.Test;
+
+/*
+Copyright 2016 Joel Whittaker-Smith
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/public class ManifestJsonTest {
+
+  private static final int COMPONENTS = 5000;
+
+  @Test
+  public void streamingMatchesStringSerialization() throws Exception {
+    ComponentManifest componentManifest = newManifest(COMPONENTS);
+
+    StringWriter writer = new StringWriter();
+    ManifestJson.write(componentManifest, writer);
+
+    assertEquals(new Gson().toJson(componentManifest), writer.toString());
+  }
+
+  @Test
+  public void readRoundTripsWrite() throws Exception {
+    ComponentManifest componentManifest = newManifest(COMPONENTS);
+
+    StringWriter writer = new StringWriter();
+    ManifestJson.write(componentManifest, writer);
+
+    assertEquals(componentManifest,
+        ManifestJson.read(new StringReader(writer.toString()), Long.MAX_VALUE, COMPONENTS));
+  }
+
+  @Test
+  public void readRejectsBadInput() throws Exception {
+    assertRejected("", 400);
+    assertRejected("{\"name\": \"mock-manifest\"", 400);
+    assertRejected("{\"name\": \"mock-manifest\", \"artifacts\": []}", 400);
+    assertRejected("{\"name\": \"mock-manifest\", \"version\": \"1.0.0\", \"artifacts\": {}}",
+        400);
+    assertRejected("{\"name\": \"mock-manifest\", \"version\": \"1.0.0\", \"artifacts\": ["
+        + "{\"name\": \"artifact one\", \"version\": \"1.0\"},"
+        + "{\"name\": \"artifact one\", \"version\": \"2.0\"}]}", 400);
+    assertRejected("{\"name\": \"mock-manifest\", \"version\": \"1.0.0\", \"artifacts\": ["
+        + "{\"name\": \"artifact one\"}]}", 400);
+    assertRejected("{\"name\": \"mock-manifest\", \"version\": \"1.0.0\", \"artifacts\": ["
+        + "{\"name\": \"artifact one\", \"version\": \"\"}]}", 400);
+    assertRejected("{\"name\": \"mock-manifest\", \"version\": \"1.0.0\"} []", 400);
+  }
+
+  @Test
+  public void sharedGsonDropsDuplicateComponents() throws Exception {
+    final ComponentManifest componentManifest = ManifestJson.GSON.fromJson(
+        "{\"name\": \"mock-manifest\", \"version\": \"1.0.0\", \"artifacts\": ["
+            + "{\"name\": \"artifact one\", \"version\": \"1.0\"},"
+            + "{\"name\": \"artifact one\", \"version\": \"2.0\"}]}",
+        ComponentManifest.class);
+
+    assertEquals(1, componentManifest.getArtifacts().size());
+    assertEquals("2.0", componentManifest.getComponent("artifact one").getVersion());
+  }
+
+  @Test
+  public void readEnforcesLimits() throws Exception {
+    StringWriter writer = new StringWriter();
+    ManifestJson.write(newManifest(COMPONENTS), writer);
+    final String json = writer.toString();
+
+    try {
+      ManifestJson.read(new StringReader(json), json.length() - 1, COMPONENTS);
+      fail("Expected size limit to be enforced");
+    } catch (ManifestRequestException e) {
+      assertEquals(413, e.getStatus());
+    }
+
+    try {
+      ManifestJson.read(new StringReader(json), Long.MAX_VALUE, COMPONENTS - 1);
+      fail("Expected component limit to be enforced");
+    } catch (ManifestRequestException e) {
+      assertEquals(413, e.getStatus());
+    }
+  }
+
+  private static void assertRejected(String json, int status) throws IOException {
+    try {
+      ManifestJson.read(new StringReader(json), Long.MAX_VALUE, COMPONENTS);
+      fail("Expected " + json + " to be rejected");
+    } catch (ManifestRequestException e) {
+      assertEquals(status, e.getStatus());
+    }
+  }
+
+}
@@ -0,0 +1,97 @@
+package com.joelws.componenttracker;
+
+import static com.joelws.componenttracker.ManifestFixtures.newManifest;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import org.junit.Test;
+
+/*
+Copyright 2016 Joel Whittaker-Smith
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/public class ManifestRepresentationTest {
+
+  @Test
+  public void etagFollowsContent() throws Exception {
+    final ManifestRepresentation representation =
+        ManifestRepresentation.of(newManifest("1.0.0", "1.0"));
+
+    assertEquals(representation.getETag(),
+        ManifestRepresentation.of(newManifest("1.0.0", "1.0")).getETag());
+    assertFalse(representation.getETag()
+        .equals(ManifestRepresentation.of(newManifest("1.0.1", "1.0")).getETag()));
+
+    assertTrue(representation.matches(representation.getETag()));
+    assertTrue(representation.matches("\"other\", W/" + representation.getETag()));
+    assertTrue(representation.matches("*"));
+    assertTrue(representation.matches(representation.getETag(true)));
+    assertFalse(representation.getETag().equals(representation.getETag(true)));
+    assertFalse(representation.matches("\"other\""));
+    assertFalse(representation.matches(null));
+  }
+
+  @Test
+  public void strongComparisonRejectsWeakTags() throws Exception {
+    final ManifestRepresentation representation =
+        ManifestRepresentation.of(newManifest("1.0.0", "1.0"));
+
+    assertTrue(representation.matchesStrongly(representation.getETag()));
+    assertTrue(representation.matchesStrongly(representation.getETag(true)));
+    assertTrue(representation.matchesStrongly("\"other\", " + representation.getETag()));
+    assertTrue(representation.matchesStrongly("*"));
+    assertFalse(representation.matchesStrongly("W/" + representation.getETag()));
+    assertFalse(representation.matchesStrongly("\"other\""));
+    assertFalse(representation.matchesStrongly(null));
+  }
+
+  @Test
+  public void gzipDecompressesToJson() throws Exception {
+    final ManifestRepresentation representation =
+        ManifestRepresentation.of(newManifest("1.0.0", "1.0"));
+
+    final ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+    try (InputStream in = new GZIPInputStream(
+        new ByteArrayInputStream(representation.getGzip()))) {
+      final byte[] buffer = new byte[1024];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        decompressed.write(buffer, 0, read);
+      }
+    }
+
+    assertArrayEquals(representation.getJson(), decompressed.toByteArray());
+    assertNotSame(representation.getJson(), representation.getGzip());
+  }
+
+  @Test
+  public void acceptsGzip() throws Exception {
+    assertTrue(ManifestRepresentation.acceptsGzip("gzip, deflate"));
+    assertTrue(ManifestRepresentation.acceptsGzip("deflate, GZIP;q=0.5"));
+    assertTrue(ManifestRepresentation.acceptsGzip("*"));
+    assertFalse(ManifestRepresentation.acceptsGzip("gzip;q=0"));
+    assertTrue(ManifestRepresentation.acceptsGzip("*;q=0, gzip"));
+    assertFalse(ManifestRepresentation.acceptsGzip("*, gzip;q=0"));
+    assertFalse(ManifestRepresentation.acceptsGzip("*;q=0"));
+    assertFalse(ManifestRepresentation.acceptsGzip("identity"));
+    assertFalse(ManifestRepresentation.acceptsGzip(null));
+  }
+
+}
@@ -0,0 +1,211 @@
+package com.joelws.componenttracker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.joelws.componenttracker.model.Component;
+import com.joelws.componenttracker.model.ComponentManifest;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.eclipse.aether.deployment.DeploymentException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/*
+Copyright 2016 Joel Whittaker-Smith
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/public class MavenTransportTest {
+
+  private static final String GROUP_ID = "com.joelws.test";
+
+  private static final int DEPLOYS = 8;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final ComponentManifest manifest = new ComponentManifest(
+      "mock-manifest",
+      "1.0.0",
+      Collections.singletonList(new Component("artifact one", "1.0")));
+
+  private DeploymentTarget target(File directory) {
+    return new DeploymentTarget(directory.toURI().toString(), null, null, null);
+  }
+
+  // A repository below a plain file, which can never be written to.
+  private DeploymentTarget brokenTarget() throws Exception {
+    return target(new File(folder.newFile("blocker"), "repository"));
+  }
+
+  private File deployed(File directory) {
+    return new File(directory, "content/repositories/releases/com/joelws/test/mock-manifest/"
+        + "1.0.0/mock-manifest-1.0.0.json");
+  }
+
+  @Test
+  public void deploysToEveryTarget() throws Exception {
+    final File primary = folder.newFolder();
+    final File replica = folder.newFolder();
+
+    MavenTransport.getInstance().archiveManifests(
+        Collections.singletonList(manifest),
+        GROUP_ID,
+        Arrays.asList(target(primary), target(replica)),
+        0);
+
+    assertTrue(deployed(primary).isFile());
+    assertTrue(deployed(replica).isFile());
+  }
+
+  @Test
+  public void reusesContextUntilReset() throws Exception {
+    final MavenTransport transport = MavenTransport.getInstance();
+    final ComponentTrackerMetrics metrics = ComponentTrackerMetrics.getInstance();
+    final List<DeploymentTarget> targets = Collections.singletonList(target(folder.newFolder()));
+    transport.reset();
+
+    final long created = metrics.getCount("transport.contexts.created");
+    final long reused = metrics.getCount("transport.contexts.reused");
+
+    transport.archiveManifests(Collections.singletonList(manifest), GROUP_ID, targets, 0);
+    final long systems = metrics.getCount("transport.systems.created");
+    transport.archiveManifests(Collections.singletonList(manifest), GROUP_ID, targets, 0);
+
+    assertEquals(created + 1, metrics.getCount("transport.contexts.created"));
+    assertEquals(reused + 1, metrics.getCount("transport.contexts.reused"));
+
+    transport.reset();
+    transport.archiveManifests(Collections.singletonList(manifest), GROUP_ID, targets, 0);
+
+    assertEquals(created + 2, metrics.getCount("transport.contexts.created"));
+    assertEquals(reused + 1, metrics.getCount("transport.contexts.reused"));
+    assertEquals(systems, metrics.getCount("transport.systems.created"));
+  }
+
+  @Test
+  public void quorumToleratesFailedTarget() throws Exception {
+    final File primary = folder.newFolder();
+    final File replica = folder.newFolder();
+    final List<DeploymentTarget> targets =
+        Arrays.asList(target(primary), brokenTarget(), target(replica));
+
+    MavenTransport.getInstance().archiveManifests(
+        Collections.singletonList(manifest), GROUP_ID, targets, 2);
+
+    assertTrue(deployed(primary).isFile());
+    assertTrue(deployed(replica).isFile());
+
+    try {
+      MavenTransport.getInstance().archiveManifests(
+          Collections.singletonList(manifest), GROUP_ID, targets, 0);
+      fail("Expected a deploy needing every target to fail");
+    } catch (DeploymentException e) {
+      assertEquals(1, e.getSuppressed().length);
+    }
+  }
+
+  @Test
+  public void skipsArtifactAlreadyDeployed() throws Exception {
+    final File primary = folder.newFolder();
+    final List<DeploymentTarget> targets = Collections.singletonList(target(primary));
+
+    MavenTransport.getInstance().archiveManifests(
+        Collections.singletonList(manifest), GROUP_ID, targets, 0);
+    Files.write(deployed(primary).toPath(), "changed".getBytes(StandardCharsets.UTF_8));
+
+    MavenTransport.getInstance().archiveManifests(
+        Collections.singletonList(manifest), GROUP_ID, targets, 0);
+
+    assertEquals("changed",
+        new String(Files.readAllBytes(deployed(primary).toPath()), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void skipsArtifactWithMatchingRemoteDigest() throws Exception {
+    final File primary = folder.newFolder();
+    final File replica = folder.newFolder();
+
+    MavenTransport.getInstance().archiveManifests(
+        Collections.singletonList(manifest), GROUP_ID,
+        Collections.singletonList(target(primary)), 0);
+
+    // The replica only has the checksum, so an upload would be visible.
+    final File remoteDigest = new File(deployed(replica).getPath() + ".sha1");
+    remoteDigest.getParentFile().mkdirs();
+    Files.copy(new File(deployed(primary).getPath() + ".sha1").toPath(), remoteDigest.toPath());
+
+    MavenTransport.getInstance().archiveManifests(
+        Collections.singletonList(manifest), GROUP_ID,
+        Collections.singletonList(target(replica)), 0);
+
+    assertFalse(deployed(replica).exists());
+  }
+
+  @Test
+  public void concurrentDeploysStageSeparately() throws Exception {
+    final File primary = folder.newFolder();
+    final List<DeploymentTarget> targets = Collections.singletonList(target(primary));
+    final String name = "concurrent-" + primary.getName();
+    final ExecutorService executor = Executors.newFixedThreadPool(DEPLOYS);
+    final List<Future<?>> deploys = new ArrayList<>();
+
+    for (int i = 0; i < DEPLOYS; i++) {
+      final ComponentManifest versioned = new ComponentManifest(
+          name,
+          "1.0." + i,
+          Collections.singletonList(new Component("artifact one", "1." + i)));
+      deploys.add(executor.submit(() -> {
+        MavenTransport.getInstance().archiveManifests(
+            Collections.singletonList(versioned), GROUP_ID, targets, 0);
+        return null;
+      }));
+    }
+    for (Future<?> deploy : deploys) {
+      deploy.get();
+    }
+    executor.shutdown();
+
+    for (int i = 0; i < DEPLOYS; i++) {
+      final File artifact = new File(primary, "content/repositories/releases/com/joelws/test/"
+          + name + "/1.0." + i + "/" + name + "-1.0." + i + ".json");
+      assertTrue(new String(Files.readAllBytes(artifact.toPath()), StandardCharsets.UTF_8)
+          .contains("\"1." + i + "\""));
+    }
+
+    final String[] staged = new File(System.getProperty("java.io.tmpdir"))
+        .list((directory, file) -> file.startsWith("hts-component-manifest-" + name));
+    assertEquals(0, staged.length);
+  }
+
+  @Test
+  public void repositoryUrlIsJoinedWithSlashes() throws Exception {
+    assertEquals("http://nexus:8081/nexus/content/repositories/releases",
+        new DeploymentTarget("http://nexus:8081/nexus/", null, null, null).getRepositoryUrl());
+    assertEquals("http://nexus/content/repositories/dr",
+        new DeploymentTarget("http://nexus", "dr", null, null).getRepositoryUrl());
+    assertFalse(target(folder.getRoot()).getRepositoryUrl().contains("\\"));
+  }
+
+}
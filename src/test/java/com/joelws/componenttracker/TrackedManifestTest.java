@@ -0,0 +1,360 @@
+package com.joelws.componenttracker;
+
+import static com.joelws.componenttracker.ManifestFixtures.NAME;
+import static com.joelws.componenttracker.ManifestFixtures.componentName;
+import static com.joelws.componenttracker.ManifestFixtures.newManifest;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.joelws.componenttracker.model.ComponentManifest;
+import com.joelws.componenttracker.model.SemanticVersion.Bump;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+/*
+Copyright 2016 Joel Whittaker-Smith
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/public class TrackedManifestTest {
+
+  private static final int SMALL = 10;
+
+  private static final int LARGE = 20000;
+
+  @Rule
+  public JenkinsRule j = new JenkinsRule();
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File seed(ComponentManifest componentManifest, boolean binarySnapshot)
+      throws Exception {
+    final File rootDirectory = folder.newFolder();
+    final TrackedManifest trackedManifest =
+        new TrackedManifest(rootDirectory, NAME, binarySnapshot, false);
+    trackedManifest.setLatestManifest(componentManifest);
+    trackedManifest.getPersister().flush();
+    trackedManifest.getHistory().close();
+    return rootDirectory;
+  }
+
+  @Test
+  public void loadsOnFirstAccess() throws Exception {
+    final File rootDirectory = seed(newManifest(LARGE), true);
+
+    final TrackedManifest trackedManifest = new TrackedManifest(rootDirectory, NAME, true, false);
+    assertFalse(trackedManifest.isLoaded());
+
+    assertEquals(newManifest(LARGE), trackedManifest.getLatestManifest());
+    assertTrue(trackedManifest.isLoaded());
+  }
+
+  @Test
+  public void startupReadsNothingWhateverTheManifestSize() throws Exception {
+    final ComponentTrackerMetrics metrics = ComponentTrackerMetrics.getInstance();
+
+    for (int components : new int[] {SMALL, LARGE}) {
+      final File rootDirectory = seed(newManifest(components), true);
+      final File snapshot = new File(rootDirectory, "manifests/" + NAME + ".bin");
+      final long before = metrics.getCount("manifest.load.bytes");
+
+      final TrackedManifest trackedManifest =
+          new TrackedManifest(rootDirectory, NAME, true, false);
+      assertEquals(before, metrics.getCount("manifest.load.bytes"));
+
+      // The snapshot is checked against the XML without reading the XML.
+      assertEquals(newManifest(components), trackedManifest.getLatestManifest());
+      assertEquals(before + snapshot.length(), metrics.getCount("manifest.load.bytes"));
+    }
+  }
+
+  @Test
+  public void migratesFromXml() throws Exception {
+    final File rootDirectory = seed(newManifest(SMALL), false);
+    final File snapshot = new File(rootDirectory, "manifests/" + NAME + ".bin");
+    assertFalse(snapshot.exists());
+
+    final TrackedManifest trackedManifest = new TrackedManifest(rootDirectory, NAME, true, false);
+    assertEquals(newManifest(SMALL), trackedManifest.getLatestManifest());
+
+    trackedManifest.getPersister().flush();
+    assertEquals(newManifest(SMALL),
+        ManifestSnapshot.read(snapshot, trackedManifest.getConfigFile().getFile()));
+  }
+
+  @Test
+  public void ignoresSnapshotNotWrittenWithTheXml() throws Exception {
+    final File rootDirectory = seed(newManifest(SMALL), true);
+    final File snapshot = new File(rootDirectory, "manifests/" + NAME + ".bin");
+
+    // Saved without the snapshot, as if interrupted before writing it.
+    final TrackedManifest xmlOnly = new TrackedManifest(rootDirectory, NAME, false, false);
+    xmlOnly.setLatestManifest(newManifest(SMALL + 1));
+    xmlOnly.getPersister().flush();
+    xmlOnly.getHistory().close();
+    assertTrue(snapshot.setLastModified(System.currentTimeMillis() + 60000));
+
+    assertEquals(newManifest(SMALL + 1),
+        new TrackedManifest(rootDirectory, NAME, true, false).getLatestManifest());
+  }
+
+  @Test
+  public void fallsBackToXmlWhenSnapshotIsCorrupt() throws Exception {
+    final File rootDirectory = seed(newManifest(SMALL), true);
+    final File snapshot = new File(rootDirectory, "manifests/" + NAME + ".bin");
+    Files.write(snapshot.toPath(), "not a snapshot".getBytes(StandardCharsets.UTF_8));
+
+    assertEquals(newManifest(SMALL),
+        new TrackedManifest(rootDirectory, NAME, true, false).getLatestManifest());
+  }
+
+  @Test
+  public void fileLockRejectsUpdateFromOutdatedManifest() throws Exception {
+    final File rootDirectory = folder.newFolder();
+    final TrackedManifest active = new TrackedManifest(rootDirectory, NAME, false, true);
+    final TrackedManifest standby = new TrackedManifest(rootDirectory, NAME, false, true);
+
+    active.setLatestManifest(newManifest(SMALL));
+    final ComponentManifest read = standby.getLatestManifest();
+    assertEquals(newManifest(SMALL), read);
+
+    assertEquals("1.0.1", active.updateComponentsInManifest(
+        Collections.singletonMap("artifact 1", "2.0"), Bump.PATCH).getVersion());
+
+    // The standby still holds the manifest it read, its conditional update must lose.
+    assertNull(standby.updateComponentsInManifest(
+        Collections.singletonMap("artifact 2", "2.0"), Bump.PATCH, read));
+    assertEquals("1.0.1", standby.getLatestManifest().getVersion());
+    assertEquals("2.0", standby.getLatestManifest().getComponent("artifact 1").getVersion());
+  }
+
+  @Test
+  public void fileLockNeverLosesAnUpdate() throws Exception {
+    final File rootDirectory = folder.newFolder();
+    final TrackedManifest active = new TrackedManifest(rootDirectory, NAME, false, true);
+    final TrackedManifest standby = new TrackedManifest(rootDirectory, NAME, false, true);
+
+    active.setLatestManifest(newManifest(SMALL));
+    standby.getLatestManifest();
+
+    active.updateComponentsInManifest(Collections.singletonMap("artifact 1", "2.0"));
+    final ComponentManifest updated =
+        standby.updateComponentsInManifest(Collections.singletonMap("artifact 2", "2.0"));
+
+    assertEquals("1.0.2", updated.getVersion());
+    assertEquals("2.0", updated.getComponent("artifact 1").getVersion());
+    assertEquals("2.0", updated.getComponent("artifact 2").getVersion());
+    assertEquals(updated,
+        new TrackedManifest(rootDirectory, NAME, false, true).getLatestManifest());
+  }
+
+  @Test
+  public void fileLockKeepsOneHistoryForBothControllers() throws Exception {
+    final File rootDirectory = folder.newFolder();
+    final TrackedManifest active = new TrackedManifest(rootDirectory, NAME, false, true);
+    final TrackedManifest standby = new TrackedManifest(rootDirectory, NAME, false, true);
+
+    active.setLatestManifest(newManifest(SMALL));
+    standby.getLatestManifest();
+
+    active.updateComponentsInManifest(Collections.singletonMap("artifact 1", "2.0"));
+    standby.updateComponentsInManifest(Collections.singletonMap("artifact 2", "2.0"));
+    active.updateComponentsInManifest(Collections.singletonMap("artifact 3", "2.0"));
+    active.getHistory().close();
+    standby.getHistory().close();
+
+    final TrackedManifest restarted = new TrackedManifest(rootDirectory, NAME, false, true);
+    final ComponentManifest latest = restarted.getLatestManifest();
+    assertEquals("1.0.3", latest.getVersion());
+    assertEquals(latest, restarted.getHistory().getHead());
+
+    assertEquals("2.0", restarted.getManifest("1.0.1").getComponent("artifact 1").getVersion());
+    assertEquals("1.0.2", restarted.getManifest("1.0.1").getComponent("artifact 2").getVersion());
+    assertEquals("2.0", restarted.getManifest("1.0.2").getComponent("artifact 2").getVersion());
+    assertEquals("1.0.3", restarted.getManifest("1.0.2").getComponent("artifact 3").getVersion());
+    assertEquals("2.0", restarted.getManifest("1.0.3").getComponent("artifact 3").getVersion());
+  }
+
+  @Test
+  public void bumpDropsLeadingZerosOfStoredVersion() throws Exception {
+    final TrackedManifest trackedManifest =
+        new TrackedManifest(folder.newFolder(), NAME, false, false);
+
+    trackedManifest.setLatestManifest(newManifest("1.0.01", "1.0"));
+    assertEquals("1.0.2", trackedManifest.updateComponentsInManifest(
+        Collections.singletonMap("artifact one", "2.0"), Bump.PATCH).getVersion());
+  }
+
+  @Test
+  public void resubmittingTheSameManifestIsNotSaved() throws Exception {
+    final TrackedManifest trackedManifest =
+        new TrackedManifest(folder.newFolder(), NAME, false, false);
+
+    trackedManifest.setLatestManifest(newManifest(SMALL));
+    final ComponentManifest stored = trackedManifest.getLatestManifest();
+
+    trackedManifest.submitLatestManifest(newManifest(SMALL));
+    assertTrue(stored == trackedManifest.getLatestManifest());
+    assertEquals(1, stored.getRevision());
+  }
+
+  @Test
+  public void concurrentCommitsAreAllRecorded() throws Exception {
+    final TrackedManifest trackedManifest =
+        new TrackedManifest(folder.newFolder(), NAME, false, false);
+    trackedManifest.setLatestManifest(newManifest(SMALL));
+
+    final List<Thread> updaters = new ArrayList<>();
+    for (int i = 0; i < SMALL; i++) {
+      final String component = componentName(i);
+      updaters.add(new Thread(() -> trackedManifest.updateComponentsInManifest(
+          Collections.singletonMap(component, "2.0"))));
+    }
+    for (Thread updater : updaters) {
+      updater.start();
+    }
+    for (Thread updater : updaters) {
+      updater.join();
+    }
+
+    // Every committed version was handed out, so every one must be in the history.
+    for (int patch = 1; patch <= SMALL; patch++) {
+      assertNotNull("1.0." + patch, trackedManifest.getManifest("1.0." + patch));
+    }
+  }
+
+  @Test
+  public void concurrentSubmissionsLeaveTheLastOne() throws Exception {
+    final HeldManifest trackedManifest = new HeldManifest(folder.newFolder());
+    final List<Thread> submitters = new ArrayList<>();
+    final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+
+    // The first submission commits while the rest queue up behind it, in order.
+    for (int i = 0; i < SMALL; i++) {
+      final Thread submitter = submit(trackedManifest, "1.0." + i, failures);
+      submitters.add(submitter);
+      if (i == 0) {
+        trackedManifest.committing.await();
+      } else {
+        awaitWaiting(submitter);
+      }
+    }
+
+    trackedManifest.release.countDown();
+    for (Thread submitter : submitters) {
+      submitter.join();
+    }
+
+    assertTrue(failures.isEmpty());
+    assertEquals(Arrays.asList("1.0.0", "1.0." + (SMALL - 1)), trackedManifest.committed);
+    assertEquals("1.0." + (SMALL - 1), trackedManifest.getLatestManifest().getVersion());
+    assertEquals(2, trackedManifest.getLatestManifest().getRevision());
+  }
+
+  @Test
+  public void failedCommitIsReportedToCoalescedSubmissions() throws Exception {
+    final HeldManifest trackedManifest = new HeldManifest(folder.newFolder());
+    trackedManifest.failing = true;
+    final List<Thread> submitters = new ArrayList<>();
+    final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+
+    for (int i = 0; i < SMALL; i++) {
+      final Thread submitter = submit(trackedManifest, "1.0." + i, failures);
+      submitters.add(submitter);
+      if (i == 0) {
+        trackedManifest.committing.await();
+      } else {
+        awaitWaiting(submitter);
+      }
+    }
+
+    trackedManifest.release.countDown();
+    for (Thread submitter : submitters) {
+      submitter.join();
+    }
+
+    assertEquals(SMALL, failures.size());
+    assertNull(trackedManifest.getLatestManifest());
+  }
+
+  private Thread submit(final TrackedManifest trackedManifest, String version,
+      final List<Throwable> failures) {
+    final ComponentManifest componentManifest = newManifest(SMALL);
+    componentManifest.setVersion(version);
+
+    final Thread submitter = new Thread(() -> {
+      try {
+        trackedManifest.submitLatestManifest(componentManifest);
+      } catch (Exception e) {
+        failures.add(e);
+      }
+    });
+    submitter.start();
+    return submitter;
+  }
+
+  private static void awaitWaiting(Thread thread) throws InterruptedException {
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (thread.getState() != Thread.State.WAITING) {
+      if (System.nanoTime() > deadline) {
+        fail(thread + " did not queue behind the commit in progress");
+      }
+      Thread.sleep(1);
+    }
+  }
+
+  // Holds every commit until released, so submissions made meanwhile queue up behind it.
+  private static final class HeldManifest extends TrackedManifest {
+
+    private final CountDownLatch committing = new CountDownLatch(1);
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private final List<String> committed = Collections.synchronizedList(new ArrayList<String>());
+
+    private volatile boolean failing;
+
+    HeldManifest(File rootDirectory) {
+      super(rootDirectory, NAME, false, false);
+    }
+
+    @Override
+    public boolean setLatestManifest(ComponentManifest latestManifest) {
+      committed.add(latestManifest.getVersion());
+      committing.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+      return !failing && super.setLatestManifest(latestManifest);
+    }
+  }
+
+}
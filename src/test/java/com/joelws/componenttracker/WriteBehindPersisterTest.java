@@ -0,0 +1,169 @@
+package com.joelws.componenttracker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import hudson.XmlFile;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestExtension;
+
+/*
+Copyright 2016 Joel Whittaker-Smith
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/public class WriteBehindPersisterTest {
+
+  // Long enough that nothing is flushed behind the test's back.
+  private static final long INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  @Rule
+  public JenkinsRule j = new JenkinsRule();
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void coalescesUpdatesIntoOneWrite() throws Exception {
+    final XmlFile file = new XmlFile(new File(folder.getRoot(), "owner.xml"));
+    final WriteBehindPersister persister =
+        new WriteBehindPersister(new Owner(), file, INTERVAL_MILLIS);
+
+    final long saves = saves();
+    final long absorbed = absorbed();
+
+    persister.markDirty();
+    persister.markDirty();
+    persister.markDirty();
+    assertEquals(3, persister.getPendingUpdates());
+    assertEquals(saves, saves());
+    assertFalse(file.exists());
+
+    persister.flush();
+    assertTrue(file.exists());
+    assertEquals(0, persister.getPendingUpdates());
+    assertEquals(saves + 1, saves());
+    assertEquals(absorbed + 3, absorbed());
+
+    // Nothing pending, nothing written.
+    persister.flush();
+    assertEquals(saves + 1, saves());
+
+    persister.markDirty();
+    persister.flush();
+    assertEquals(saves + 2, saves());
+    assertEquals(absorbed + 4, absorbed());
+  }
+
+  @Test
+  public void notifiesSaveableListeners() throws Exception {
+    final Owner owner = new Owner();
+    final XmlFile file = new XmlFile(new File(folder.getRoot(), "owner.xml"));
+    final WriteBehindPersister persister = new WriteBehindPersister(owner, file, INTERVAL_MILLIS);
+
+    persister.markDirty();
+    persister.markDirty();
+    assertFalse(SaveListener.SAVED.contains(owner));
+
+    persister.flush();
+    assertEquals(1, Collections.frequency(SaveListener.SAVED, owner));
+  }
+
+  @Test
+  public void retriesFailedWrite() throws Exception {
+    final XmlFile file = new XmlFile(new File(folder.getRoot(), "owner.xml"));
+    final AtomicInteger failures = new AtomicInteger(2);
+    final List<Long> delays = new ArrayList<>();
+    final List<Runnable> retries = new ArrayList<>();
+    final WriteBehindPersister persister =
+        new WriteBehindPersister(new Owner(), file, INTERVAL_MILLIS) {
+          @Override
+          protected long write() throws IOException {
+            if (failures.getAndDecrement() > 0) {
+              throw new IOException("Disk full");
+            }
+            return super.write();
+          }
+
+          @Override
+          void runLater(Runnable task, long delayMillis) {
+            delays.add(delayMillis);
+            retries.add(task);
+          }
+        };
+
+    final long saves = saves();
+
+    persister.markDirty();
+    persister.flush();
+    assertEquals(1, persister.getPendingUpdates());
+    assertEquals(saves, saves());
+
+    // No further updates arrive, the retries alone have to write the file.
+    assertEquals(Arrays.asList(1000L), delays);
+    retries.get(0).run();
+    assertEquals(Arrays.asList(1000L, 2000L), delays);
+    assertEquals(saves, saves());
+
+    retries.get(1).run();
+    assertEquals(2, retries.size());
+    assertEquals(saves + 1, saves());
+    assertEquals(0, persister.getPendingUpdates());
+    assertTrue(file.exists());
+  }
+
+  private static long saves() {
+    final ComponentTrackerMetrics.Histogram histogram =
+        ComponentTrackerMetrics.getInstance().getHistogram("save.absorbed");
+    return histogram != null ? histogram.getCount() : 0;
+  }
+
+  private static long absorbed() {
+    final ComponentTrackerMetrics.Histogram histogram =
+        ComponentTrackerMetrics.getInstance().getHistogram("save.absorbed");
+    return histogram != null ? histogram.getSum() : 0;
+  }
+
+  @TestExtension("notifiesSaveableListeners")
+  public static class SaveListener extends SaveableListener {
+
+    static final List<Saveable> SAVED = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void onChange(Saveable o, XmlFile file) {
+      SAVED.add(o);
+    }
+  }
+
+  private static final class Owner implements Saveable {
+
+    @Override
+    public void save() {
+    }
+  }
+
+}
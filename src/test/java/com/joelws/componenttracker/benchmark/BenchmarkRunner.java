@@ -0,0 +1,66 @@
+package com.joelws.componenttracker.benchmark;
+
+import java.io.File;
+import org.junit.Test;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/*
+Copyright 2016 Joel Whittaker-Smith
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+/**
+ * Runs the JMH benchmarks from surefire, only picked up with the benchmark profile:
+ * <pre>mvn -Pbenchmark test</pre>
+ * Results are written as JSON to target/jmh so runs can be compared with a saved baseline.
+ */
+public class BenchmarkRunner {
+
+  private static final int[] UPDATE_THREADS = {1, 4, 16};
+
+  @Test
+  public void runBenchmarks() throws Exception {
+    new File("target/jmh").mkdirs();
+
+    for (int threads : UPDATE_THREADS) {
+      new Runner(options("update-" + threads + "-threads")
+          .include(ManifestUpdateBenchmark.class.getName())
+          .threads(threads)
+          .build()).run();
+    }
+
+    new Runner(options("serialization")
+        .include(ManifestSerializationBenchmark.class.getName())
+        .addProfiler(GCProfiler.class)
+        .build()).run();
+
+    new Runner(options("archive")
+        .include(ManifestArchiveBenchmark.class.getName())
+        .build()).run();
+  }
+
+  private static ChainedOptionsBuilder options(String name) {
+    return new OptionsBuilder()
+        .forks(1)
+        .warmupIterations(5)
+        .measurementIterations(10)
+        .shouldFailOnError(true)
+        .resultFormat(ResultFormatType.JSON)
+        .result("target/jmh/" + name + ".json");
+  }
+
+}
@@ -0,0 +1,86 @@
+package com.joelws.componenttracker.benchmark;
+
+import com.joelws.componenttracker.DeploymentTarget;
+import com.joelws.componenttracker.ManifestFixtures;
+import com.joelws.componenttracker.MavenTransport;
+import com.joelws.componenttracker.model.ComponentManifest;
+import hudson.Util;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/*
+Copyright 2016 Joel Whittaker-Smith
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+/**
+ * Staging and deploying one manifest to a file:// repository, which leaves out the network so
+ * the numbers show the cost of the deploy path itself.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ManifestArchiveBenchmark {
+
+  @Param({"10", "1000", "10000"})
+  public int components;
+
+  private File directory;
+
+  private DeploymentTarget target;
+
+  private ComponentManifest componentManifest;
+
+  private int deploys;
+
+  @Setup
+  public void setUp() throws Exception {
+    directory = Files.createTempDirectory("component-tracker-benchmark").toFile();
+    target = new DeploymentTarget(directory.toURI().toString(), null, null, null);
+    componentManifest = ManifestFixtures.newManifest(components);
+  }
+
+  // Already deployed versions are skipped, so every invocation deploys a new one.
+  @Setup(Level.Invocation)
+  public void nextVersion() {
+    componentManifest.setVersion("1.0." + deploys++);
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    Util.deleteRecursive(directory);
+  }
+
+  @Benchmark
+  public ComponentManifest archive() throws Exception {
+    MavenTransport.getInstance().archiveManifests(
+        Collections.singletonList(componentManifest),
+        "com.joelws.benchmark",
+        Collections.singletonList(target),
+        0);
+    return componentManifest;
+  }
+
+}
@@ -0,0 +1,129 @@
+package com.joelws.componenttracker.benchmark;
+
+import com.google.gson.Gson;
+import com.joelws.componenttracker.ManifestFixtures;
+import com.joelws.componenttracker.ManifestJson;
+import com.joelws.componenttracker.ManifestRepresentation;
+import com.joelws.componenttracker.model.ComponentManifest;
+import hudson.Util;
+import hudson.XmlFile;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/*
+Copyright 2016 Joel Whittaker-Smith
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+/**
+ * JSON serialization as served by the endpoint, and the XStream save and load of the config
+ * file. Run with the GC profiler so the allocation of the streaming and string paths can be
+ * compared.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ManifestSerializationBenchmark {
+
+  @Param({"10", "1000", "10000"})
+  public int components;
+
+  private ComponentManifest componentManifest;
+
+  private File directory;
+
+  private XmlFile saveFile;
+
+  private XmlFile loadFile;
+
+  private final Writer sink = new DiscardingWriter();
+
+  @Setup
+  public void setUp() throws Exception {
+    componentManifest = ManifestFixtures.newManifest(components);
+    directory = Files.createTempDirectory("component-tracker-benchmark").toFile();
+    saveFile = new XmlFile(new File(directory, "save.xml"));
+    loadFile = new XmlFile(new File(directory, "load.xml"));
+    loadFile.write(componentManifest);
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    Util.deleteRecursive(directory);
+  }
+
+  @Benchmark
+  public Writer writeJson() throws IOException {
+    ManifestJson.write(componentManifest, sink);
+    return sink;
+  }
+
+  // The previous implementation: a new Gson per call and the whole document as one string.
+  @Benchmark
+  public Writer writeJsonString() throws IOException {
+    sink.write(new Gson().toJson(componentManifest));
+    return sink;
+  }
+
+  @Benchmark
+  public ManifestRepresentation representation() throws IOException {
+    return ManifestRepresentation.of(componentManifest);
+  }
+
+  @Benchmark
+  public XmlFile saveXml() throws IOException {
+    saveFile.write(componentManifest);
+    return saveFile;
+  }
+
+  @Benchmark
+  public Object loadXml() throws IOException {
+    return loadFile.read();
+  }
+
+  private static final class DiscardingWriter extends Writer {
+
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+    }
+
+    @Override
+    public void write(int c) {
+    }
+
+    @Override
+    public void write(String str, int off, int len) {
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+}
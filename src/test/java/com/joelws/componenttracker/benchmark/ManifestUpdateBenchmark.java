@@ -0,0 +1,82 @@
+package com.joelws.componenttracker.benchmark;
+
+import com.joelws.componenttracker.ManifestFixtures;
+import com.joelws.componenttracker.TrackedManifest;
+import hudson.Util;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/*
+Copyright 2016 Joel Whittaker-Smith
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+/**
+ * Publisher-style single component updates against one tracked manifest, including the history
+ * append and the write-behind save. Run with several thread counts to see CAS contention.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ManifestUpdateBenchmark {
+
+  @Param({"10", "1000", "10000"})
+  public int components;
+
+  private File rootDirectory;
+
+  private TrackedManifest trackedManifest;
+
+  @Setup
+  public void setUp() throws Exception {
+    rootDirectory = Files.createTempDirectory("component-tracker-benchmark").toFile();
+    trackedManifest = new TrackedManifest(rootDirectory, ManifestFixtures.NAME);
+    trackedManifest.setLatestManifest(ManifestFixtures.newManifest(components));
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    trackedManifest.getPersister().flush();
+    trackedManifest.getHistory().close();
+    Util.deleteRecursive(rootDirectory);
+  }
+
+  @State(Scope.Thread)
+  public static class Updater {
+
+    private int next;
+
+    String nextComponent(int components) {
+      next = (next + 1) % components;
+      return ManifestFixtures.componentName(next);
+    }
+  }
+
+  @Benchmark
+  public Object updateComponent(Updater updater) {
+    return trackedManifest.updateComponentsInManifest(
+        Collections.singletonMap(updater.nextComponent(components), "2.0.0"));
+  }
+
+}
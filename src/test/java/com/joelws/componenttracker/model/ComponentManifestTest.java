@@ -0,0 +1,110 @@
+package com.joelws.componenttracker.model;
+
+import static com.joelws.componenttracker.ManifestFixtures.newManifest;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.Gson;
+import hudson.util.XStream2;
+import java.util.Arrays;
+import org.junit.Test;
+
+/*
+Copyright 2016 Joel Whittaker-Smith
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/public class ComponentManifestTest {
+
+  @Test
+  public void duplicateNamesKeepLastVersion() throws Exception {
+    ComponentManifest componentManifest = new ComponentManifest(
+        "mock-manifest",
+        "1.0.0",
+        Arrays.asList(
+            new Component(
+                "artifact one",
+                "1.0"
+            ),
+            new Component(
+                "artifact two",
+                "1.0"
+            ),
+            new Component(
+                "artifact one",
+                "1.1"
+            ))
+    );
+
+    assertEquals(2, componentManifest.getArtifacts().size());
+    assertEquals("1.1", componentManifest.getComponent("artifact one").getVersion());
+    assertEquals("artifact one", componentManifest.getArtifacts().get(0).getName());
+  }
+
+  @Test
+  public void putComponentReplacesOrAppends() throws Exception {
+    ComponentManifest componentManifest = newManifest("1.0.0", "1.1");
+
+    componentManifest.putComponent(new Component("artifact two", "2.0"));
+    componentManifest.putComponent(new Component("artifact three", "1.0"));
+
+    assertEquals(3, componentManifest.getArtifacts().size());
+    assertEquals("2.0", componentManifest.getComponent("artifact two").getVersion());
+    assertEquals("artifact three", componentManifest.getArtifacts().get(2).getName());
+    assertNull(componentManifest.getComponent("artifact four"));
+  }
+
+  @Test
+  public void changingReturnedComponentLeavesManifestUnchanged() throws Exception {
+    ComponentManifest componentManifest = newManifest("1.0.0", "1.1");
+    ComponentManifest unchanged = newManifest("1.0.0", "1.1");
+    componentManifest.hashCode();
+    unchanged.hashCode();
+
+    componentManifest.getComponent("artifact two").setVersion("9.0");
+
+    assertEquals("1.0", componentManifest.getComponent("artifact two").getVersion());
+    assertEquals(unchanged, componentManifest);
+    assertEquals(unchanged.hashCode(), componentManifest.hashCode());
+  }
+
+  @Test
+  public void indexSurvivesGsonRoundTrip() throws Exception {
+    ComponentManifest componentManifest = newManifest("1.0.0", "1.1");
+    componentManifest.getComponent("artifact one");
+
+    Gson gson = new Gson();
+    ComponentManifest roundTripped = gson
+        .fromJson(gson.toJson(componentManifest), ComponentManifest.class);
+
+    assertEquals(componentManifest, roundTripped);
+    assertTrue(roundTripped.setComponentVersion("artifact two", "3.0"));
+    assertEquals("3.0", roundTripped.getComponent("artifact two").getVersion());
+  }
+
+  @Test
+  public void indexSurvivesXStreamRoundTrip() throws Exception {
+    ComponentManifest componentManifest = newManifest("1.0.0", "1.1");
+    componentManifest.getComponent("artifact one");
+
+    XStream2 xstream = new XStream2();
+    ComponentManifest roundTripped = (ComponentManifest) xstream
+        .fromXML(xstream.toXML(componentManifest));
+
+    assertEquals(componentManifest, roundTripped);
+    assertEquals(componentManifest.hashCode(), roundTripped.hashCode());
+    assertTrue(roundTripped.setComponentVersion("artifact two", "3.0"));
+    assertEquals("3.0", roundTripped.getComponent("artifact two").getVersion());
+  }
+
+}
@@ -0,0 +1,137 @@
+package com.joelws.componenttracker.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.joelws.componenttracker.model.SemanticVersion.Bump;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+/*
+Copyright 2016 Joel Whittaker-Smith
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/public class SemanticVersionTest {
+
+  @Test
+  public void parsesPreReleaseAndBuild() {
+    final SemanticVersion version = SemanticVersion.parse("1.22.333-rc.1+build.7");
+
+    assertEquals(1, version.getMajor());
+    assertEquals(22, version.getMinor());
+    assertEquals(333, version.getPatch());
+    assertEquals("rc.1", version.getPreRelease());
+    assertEquals("build.7", version.getBuild());
+    assertEquals("1.22.333-rc.1+build.7", version.toString());
+
+    assertNull(SemanticVersion.parse("1.0.0").getPreRelease());
+    assertEquals("sha.5114f85", SemanticVersion.parse("1.0.0+sha.5114f85").getBuild());
+  }
+
+  @Test
+  public void rejectsOtherVersions() {
+    for (String text : Arrays.asList(null, "", "1.0", "1.0.0.0", "v1.0.0", "1..0", "1.0.0-",
+        "1.0.0+", "1.0.0-rc..1", "1.0.0-01", "1.0.0-rc_1", "1.0.0 ", "99999999999999999999.0.0")) {
+      assertNull(text, SemanticVersion.parse(text));
+    }
+  }
+
+  @Test
+  public void acceptsLeadingZerosUntilTheNextBump() {
+    final SemanticVersion version = SemanticVersion.parse("01.02.009");
+
+    assertEquals(1, version.getMajor());
+    assertEquals(2, version.getMinor());
+    assertEquals(9, version.getPatch());
+    assertEquals("01.02.009", version.toString());
+    assertTrue(version.isSameRelease(SemanticVersion.parse("1.2.9")));
+    assertFalse(version.equals(SemanticVersion.parse("1.2.9")));
+    assertTrue(version.compareTo(SemanticVersion.parse("1.2.9")) != 0);
+
+    assertEquals("1.2.10", version.bump(Bump.PATCH).toString());
+    assertNull(SemanticVersion.parse("1.0.0-01"));
+  }
+
+  @Test
+  public void parsedVersionsAreShared() {
+    assertSame(SemanticVersion.parse("4.5.6"), SemanticVersion.parse("4.5.6"));
+  }
+
+  @Test
+  public void bumpsEachPart() {
+    final SemanticVersion version = SemanticVersion.parse("1.2.3");
+
+    assertEquals("2.0.0", version.bump(Bump.MAJOR).toString());
+    assertEquals("1.3.0", version.bump(Bump.MINOR).toString());
+    assertEquals("1.2.4", version.bump(Bump.PATCH).toString());
+    assertEquals("1.2.10", SemanticVersion.parse("1.2.9").bump(Bump.PATCH).toString());
+  }
+
+  @Test
+  public void bumpDropsPreReleaseAndBuild() {
+    assertEquals("1.2.3", SemanticVersion.parse("1.2.3-rc.1").bump(Bump.PATCH).toString());
+    assertEquals("1.3.0", SemanticVersion.parse("1.2.3-rc.1+b7").bump(Bump.MINOR).toString());
+    assertEquals("1.2.4", SemanticVersion.parse("1.2.3+b7").bump(Bump.PATCH).toString());
+  }
+
+  @Test
+  public void ordersByPrecedence() {
+    final List<String> ordered = Arrays.asList("1.0.0-alpha", "1.0.0-alpha.1",
+        "1.0.0-alpha.beta", "1.0.0-beta", "1.0.0-beta.2", "1.0.0-beta.11", "1.0.0-rc.1", "1.0.0",
+        "1.0.1", "1.2.0", "1.10.0", "2.0.0");
+
+    final List<SemanticVersion> versions = new ArrayList<>();
+    for (String text : ordered) {
+      versions.add(SemanticVersion.parse(text));
+    }
+    Collections.shuffle(versions);
+    Collections.sort(versions);
+
+    final List<String> sorted = new ArrayList<>();
+    for (SemanticVersion version : versions) {
+      sorted.add(version.toString());
+    }
+    assertEquals(ordered, sorted);
+  }
+
+  @Test
+  public void buildMetadataOnlyBreaksTies() {
+    final SemanticVersion plain = SemanticVersion.parse("1.0.0");
+    final SemanticVersion build = SemanticVersion.parse("1.0.0+b1");
+
+    assertTrue(plain.isSameRelease(build));
+    assertTrue(plain.compareTo(build) < 0);
+    assertTrue(build.compareTo(SemanticVersion.parse("1.0.1")) < 0);
+    assertEquals(0, build.compareTo(SemanticVersion.parse("1.0.0+b1")));
+  }
+
+  @Test
+  public void componentCachesItsVersion() {
+    final Component component = new Component("artifact", "1.0.0");
+    final SemanticVersion version = component.getSemanticVersion();
+
+    assertSame(version, component.getSemanticVersion());
+
+    component.setVersion("1.1.0");
+    assertEquals("1.1.0", component.getSemanticVersion().toString());
+
+    component.setVersion("1.1");
+    assertNull(component.getSemanticVersion());
+  }
+}